@@ -0,0 +1,95 @@
+/*
+ * @(#) CandidateBenchmark.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Candidate detection: the bullseye search run over every row of a
+ * thresholded page (Scanner.markRow, or Scanner.markRuns for run-length
+ * marking), for pages with more or fewer codes.  The megapixels counter
+ * gives the throughput in megapixels per second.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CandidateBenchmark {
+
+   @Param({ "1600x1200", "3264x2448" })
+   public String size;
+
+   @Param({ "10", "100", "500" })
+   public int codes;
+
+   /** Scanner.setRunLengthMarking */
+   @Param({ "false", "true" })
+   public boolean rle;
+
+   Scanner scanner;
+
+   /** Size of the page in megapixels */
+   double mp;
+
+   /** Run boundaries for markRuns */
+   int [] edges;
+
+
+   /**
+    * Counter reported next to the score, as megapixels per second
+    */
+   @State(Scope.Thread)
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   public static class Pixels {
+
+      /** Megapixels processed in the current iteration */
+      public double megapixels;
+   }
+
+
+   @Setup
+   public void setup() {
+      int [] wh = Pages.size(size);
+      byte [] page = Pages.render(wh[0], wh[1], codes, 30, 90);
+      scanner = new Scanner();
+      Pages.load(scanner, page, wh[0], wh[1]);
+      scanner.threshold();
+      mp = wh[0] * wh[1] / 1e6;
+      edges = new int[wh[0] + 1];
+   }
+
+
+   @Benchmark
+   public int mark(Pixels pixels) {
+      int count = 0;
+      int h = scanner.getImageHeight();
+      for (int j=0; j<h; j++) {
+         count += rle ? scanner.markRuns(j, edges) : scanner.markRow(j);
+      }
+      pixels.megapixels += mp;
+      return count;
+   }
+}
@@ -0,0 +1,111 @@
+/*
+ * @(#) DecodeBenchmark.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Cost of decoding a single candidate (TopCode.decode).  The
+ * candidates are the ones a scan of the page actually tests, so they
+ * include the misses as well as the codes.  Scores are per candidate.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+   /** Candidates decoded per benchmark call */
+   static final int BATCH = 256;
+
+   @Param({ "10", "100", "500" })
+   public int codes;
+
+   /** Scanner.DECODE_EXHAUSTIVE or Scanner.DECODE_COARSE */
+   @Param({ "0", "1" })
+   public int mode;
+
+   /** Scanner.setFixedPoint */
+   @Param({ "false", "true" })
+   public boolean fixed;
+
+   Scanner scanner;
+
+   TopCode spot;
+
+   /** x, y pairs of the candidates tested by a scan */
+   int [] cand;
+
+   int next;
+
+
+   @Setup
+   public void setup() {
+      int w = 3264;
+      int h = 2448;
+      byte [] page = Pages.render(w, h, codes, 30, 90);
+      scanner = new Scanner();
+      scanner.setDecodeMode(mode);
+      scanner.setFixedPoint(fixed);
+      Pages.load(scanner, page, w, h);
+      scanner.threshold();
+
+      // same walk as Scanner.findCodes, recording each tested pixel
+      SpotGrid grid = new SpotGrid();
+      grid.reset(w, h);
+      CandidateList tested = new CandidateList();
+      for (int n=0; n<scanner.cands.size(); n++) {
+         int i = scanner.cands.get(n) % w;
+         int j = scanner.cands.get(n) / w;
+         if (!grid.overlaps(i, j)) {
+            TopCode top = new TopCode();
+            top.decode(scanner, i, j);
+            if (top.isValid()) grid.add(top);
+            tested.add(scanner.cands.get(n));
+         }
+      }
+      cand = new int[tested.size() * 2];
+      for (int n=0; n<tested.size(); n++) {
+         cand[n * 2] = tested.get(n) % w;
+         cand[n * 2 + 1] = tested.get(n) / w;
+      }
+      spot = new TopCode();
+      next = 0;
+   }
+
+
+   @Benchmark
+   @OperationsPerInvocation(BATCH)
+   public int decode() {
+      int sum = 0;
+      for (int n=0; n<BATCH; n++) {
+         sum += spot.decode(scanner, cand[next], cand[next + 1]);
+         next += 2;
+         if (next == cand.length) next = 0;
+      }
+      return sum;
+   }
+}
@@ -0,0 +1,72 @@
+/*
+ * @(#) Pages.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes;
+
+
+/**
+ * Test pages for the benchmarks: 8-bit luminance planes with a number
+ * of randomly placed TopCodes on a light background, a gentle lighting
+ * gradient and a little pixel noise, drawn by PageRenderer.  Pages are
+ * generated from a fixed seed, so every run measures the same images.
+ *
+ * @author agent
+ */
+public class Pages {
+
+   /** Seed used for every page */
+   protected static long SEED = 1;
+
+
+/**
+ * Parses a size parameter like "1600x1200" into {width, height}.
+ */
+   public static int [] size(String param) {
+      int x = param.indexOf('x');
+      return new int[] {
+         Integer.parseInt(param.substring(0, x)),
+         Integer.parseInt(param.substring(x + 1))
+      };
+   }
+
+
+/**
+ * Renders a page with up to n codes between dmin and dmax pixels
+ * across (see PageRenderer.addRandomCodes).
+ */
+   public static byte [] render(int w, int h, int n, float dmin, float dmax) {
+      PageRenderer page = new PageRenderer(w, h, SEED);
+      page.addRandomCodes(n, dmin, dmax);
+      page.setLighting(0.25f, TopCode.PI / 4);
+      page.setNoise(3);
+      return page.renderLuma();
+   }
+
+
+/**
+ * Points the scanner at a luminance plane without scanning it, so that
+ * the steps of a scan can be timed one at a time.
+ */
+   public static void load(Scanner scanner, byte [] luma, int w, int h) {
+      scanner.setRegion(0, 0, w, h);
+      scanner.luma = luma;
+      scanner.stride = w;
+      scanner.radius = Math.max(w, h) / (Scanner.INTEGRAL_S * 2);
+   }
+}
@@ -0,0 +1,84 @@
+/*
+ * @(#) ScanBenchmark.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * End-to-end scans (Scanner.scanInto) across image sizes, code
+ * densities and thread counts.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScanBenchmark {
+
+   @Param({ "640x480", "1600x1200", "3264x2448" })
+   public String size;
+
+   @Param({ "10", "100" })
+   public int codes;
+
+   @Param({ "1", "4" })
+   public int threads;
+
+   Scanner scanner;
+
+   TopCodeList found;
+
+   byte [] page;
+
+   int w;
+
+   int h;
+
+
+   @Setup
+   public void setup() {
+      int [] wh = Pages.size(size);
+      w = wh[0];
+      h = wh[1];
+      float d = Math.min(w, h) / 24.0f;
+      page = Pages.render(w, h, codes, d, d * 2);
+      scanner = new Scanner();
+      scanner.setThreadCount(threads);
+      found = new TopCodeList();
+   }
+
+
+   @TearDown
+   public void teardown() {
+      scanner.close();
+   }
+
+
+   @Benchmark
+   public int scan() {
+      scanner.scanInto(page, w, h, w, found);
+      return found.size();
+   }
+}
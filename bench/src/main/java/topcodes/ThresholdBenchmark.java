@@ -0,0 +1,84 @@
+/*
+ * @(#) ThresholdBenchmark.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Thresholding throughput.  Each call converts a whole page to black
+ * and white and marks its bullseye candidates (Scanner.threshold).
+ * The megapixels counter gives the throughput in megapixels per
+ * second.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ThresholdBenchmark {
+
+   @Param({ "640x480", "1600x1200", "3264x2448" })
+   public String size;
+
+   /** Scanner.THRESHOLD_WELLNER or Scanner.THRESHOLD_INTEGRAL */
+   @Param({ "0", "1" })
+   public int mode;
+
+   Scanner scanner;
+
+   /** Size of the page in megapixels */
+   double mp;
+
+
+   /**
+    * Counter reported next to the score, as megapixels per second
+    */
+   @State(Scope.Thread)
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   public static class Pixels {
+
+      /** Megapixels processed in the current iteration */
+      public double megapixels;
+   }
+
+
+   @Setup
+   public void setup() {
+      int [] wh = Pages.size(size);
+      byte [] page = Pages.render(wh[0], wh[1], 30, 40, 120);
+      scanner = new Scanner();
+      scanner.setThresholdMode(mode);
+      Pages.load(scanner, page, wh[0], wh[1]);
+      mp = wh[0] * wh[1] / 1e6;
+   }
+
+
+   @Benchmark
+   public int threshold(Pixels pixels) {
+      scanner.threshold();
+      pixels.megapixels += mp;
+      return scanner.getCandidateCount();
+   }
+}
@@ -0,0 +1,81 @@
+/*
+ * @(#) BufferedImageSource.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes.awt;
+
+import java.awt.image.BufferedImage;
+import topcodes.ArgbImage;
+import topcodes.ImageSource;
+
+
+/**
+ * An ImageSource for a java.awt BufferedImage, e.g. a photo read with
+ * javax.imageio.ImageIO.  Grayscale images are read straight from
+ * their raster; other images are read as ARGB pixels with getRGB.
+ *
+ * @author agent
+ */
+public class BufferedImageSource implements ImageSource {
+
+   /** The wrapped image */
+   protected BufferedImage image;
+
+   /** True if intensities can be read from the raster's only band */
+   protected boolean gray;
+
+
+/**
+ * Wraps the given image
+ */
+   public BufferedImageSource(BufferedImage image) {
+      this.image = image;
+      this.gray  = (image.getType() == BufferedImage.TYPE_BYTE_GRAY);
+   }
+
+
+/**
+ * Returns the width of the image in pixels
+ */
+   public int getWidth() {
+      return image.getWidth();
+   }
+
+
+/**
+ * Returns the height of the image in pixels
+ */
+   public int getHeight() {
+      return image.getHeight();
+   }
+
+
+/**
+ * Reads the intensities of width pixels of row y, starting at column x
+ */
+   public void readRow(int x, int y, int width, int [] row) {
+      if (gray) {
+         image.getRaster().getSamples(x, y, width, 1, 0, row);
+      } else {
+         image.getRGB(x, y, width, 1, row, 0, width);
+         for (int i=0; i<width; i++) {
+            row[i] = ArgbImage.intensity(row[i]);
+         }
+      }
+   }
+}
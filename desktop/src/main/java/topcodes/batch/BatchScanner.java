@@ -0,0 +1,311 @@
+/*
+ * @(#) BatchScanner.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes.batch;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import topcodes.Scanner;
+import topcodes.ScannerPool;
+import topcodes.TopCode;
+import topcodes.awt.BufferedImageSource;
+
+
+/**
+ * Recognizes the TopCodes in a batch of page images, e.g. a directory
+ * of uploaded photos, and writes one JSON Lines record per image:
+ *
+ *   {"file":"p1.jpg","width":3264,"height":2448,
+ *    "codes":[{"code":31,"x":812.5,"y":640.0,"diameter":96.0,
+ *              "orientation":1.57}, ...],
+ *    "timings":{"read":41.2,"scan":180.3}}
+ *
+ * Images are decoded and scanned by a fixed pool of worker threads,
+ * which borrow single-threaded scanners from a ScannerPool of the same
+ * size, so throughput grows with the number of cores and the scanners'
+ * buffers are reused from image to image.  At most two images per
+ * worker are queued at a time, so memory use doesn't grow with the
+ * size of the batch.
+ * Records are written as images finish, so they aren't in input
+ * order.
+ *
+ * A record with an "error" field is written for images that can't be
+ * read.
+ *
+ *   java -jar topcodes-desktop-1.0.jar [-t threads] [-o out.jsonl] dir|@list ...
+ *
+ * @author agent
+ */
+public class BatchScanner {
+
+   /** Number of worker threads */
+   protected int threads;
+
+   /** Scanners shared by the worker threads */
+   protected ScannerPool scanners;
+
+
+/**
+ * Creates a batch scanner with the given number of worker threads
+ */
+   public BatchScanner(int threads) {
+      this.threads  = Math.max(1, threads);
+      this.scanners = new ScannerPool(this.threads) {
+         protected Scanner newScanner() {
+            return BatchScanner.this.newScanner();
+         }
+      };
+   }
+
+
+/**
+ * Returns the number of worker threads
+ */
+   public int getThreadCount() {
+      return this.threads;
+   }
+
+
+/**
+ * Creates a scanner for the workers' pool.  Workers already run in
+ * parallel, so each scanner uses a single thread.  Override to change
+ * the scanner's settings.
+ */
+   protected Scanner newScanner() {
+      return new Scanner();
+   }
+
+
+/**
+ * Scans each of the given images and writes a record for each one to
+ * out.  Returns once every image has been written.
+ */
+   public void run(List<File> images, final PrintWriter out)
+      throws InterruptedException
+   {
+      ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BatchScanner");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      final Semaphore queued = new Semaphore(threads * 2);
+
+      try {
+         for (final File file : images) {
+            queued.acquire();
+            pool.execute(new Runnable() {
+               public void run() {
+                  try {
+                     String record;
+                     try {
+                        record = process(file);
+                     } catch (RuntimeException rx) {
+                        record = "{\"file\":" + quote(file.getPath()) +
+                           ",\"error\":" + quote(rx.toString()) + "}";
+                     }
+                     synchronized (out) {
+                        out.println(record);
+                     }
+                  } finally {
+                     queued.release();
+                  }
+               }
+            });
+         }
+      } finally {
+         pool.shutdown();
+         pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+         out.flush();
+      }
+   }
+
+
+/**
+ * Reads and scans one image and returns its JSON record
+ */
+   protected String process(File file) {
+      StringBuilder json = new StringBuilder(256);
+      json.append("{\"file\":").append(quote(file.getPath()));
+
+      long t0 = System.nanoTime();
+      BufferedImage image = null;
+      String error = null;
+      try {
+         image = ImageIO.read(file);
+         if (image == null) error = "unsupported image format";
+      } catch (IOException iox) {
+         error = String.valueOf(iox.getMessage());
+      } catch (RuntimeException rx) {
+         error = rx.toString();
+      }
+      long t1 = System.nanoTime();
+
+      if (image == null) {
+         json.append(",\"error\":").append(quote(error));
+         json.append(",\"timings\":{\"read\":").append(millis(t1 - t0)).append("}}");
+         return json.toString();
+      }
+
+      final BufferedImageSource source = new BufferedImageSource(image);
+      List<TopCode> codes = scanners.withScanner(image.getWidth(), image.getHeight(),
+         new ScannerPool.Task<List<TopCode>>() {
+            public List<TopCode> run(Scanner scanner) {
+               return scanner.scan(source);
+            }
+         });
+      long t2 = System.nanoTime();
+
+      json.append(",\"width\":").append(image.getWidth());
+      json.append(",\"height\":").append(image.getHeight());
+      json.append(",\"codes\":[");
+      for (int i=0; i<codes.size(); i++) {
+         TopCode top = codes.get(i);
+         if (i > 0) json.append(',');
+         json.append("{\"code\":").append(top.getCode());
+         json.append(",\"x\":").append(top.getCenterX());
+         json.append(",\"y\":").append(top.getCenterY());
+         json.append(",\"diameter\":").append(top.getDiameter());
+         json.append(",\"orientation\":").append(top.getOrientation());
+         json.append('}');
+      }
+      json.append(']');
+      json.append(",\"timings\":{\"read\":").append(millis(t1 - t0));
+      json.append(",\"scan\":").append(millis(t2 - t1)).append("}}");
+      return json.toString();
+   }
+
+
+/**
+ * Returns a time in nanoseconds as milliseconds to 0.1 ms
+ */
+   protected static double millis(long nanos) {
+      return (nanos / 100000) / 10.0;
+   }
+
+
+/**
+ * Returns the given string as a JSON string literal
+ */
+   public static String quote(String s) {
+      StringBuilder q = new StringBuilder(s.length() + 2);
+      q.append('"');
+      for (int i=0; i<s.length(); i++) {
+         char c = s.charAt(i);
+         switch (c) {
+         case '"':  q.append("\\\""); break;
+         case '\\': q.append("\\\\"); break;
+         case '\n': q.append("\\n"); break;
+         case '\r': q.append("\\r"); break;
+         case '\t': q.append("\\t"); break;
+         default:
+            if (c < 0x20) {
+               q.append(String.format("\\u%04x", (int)c));
+            } else {
+               q.append(c);
+            }
+         }
+      }
+      return q.append('"').toString();
+   }
+
+
+/**
+ * Adds the image files in a directory (sorted by name) to the list
+ */
+   public static void addDirectory(File dir, List<File> images) {
+      String [] names = dir.list();
+      if (names == null) return;
+      java.util.Arrays.sort(names);
+      for (String name : names) {
+         String n = name.toLowerCase();
+         if (n.endsWith(".png") || n.endsWith(".jpg") || n.endsWith(".jpeg") ||
+             n.endsWith(".bmp") || n.endsWith(".gif")) {
+            images.add(new File(dir, name));
+         }
+      }
+   }
+
+
+/**
+ * Adds the files named in a list file (one path per line) to the list
+ */
+   public static void addList(File list, List<File> images) throws IOException {
+      BufferedReader in = new BufferedReader(new FileReader(list));
+      try {
+         String line;
+         while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.length() > 0) images.add(new File(line));
+         }
+      } finally {
+         in.close();
+      }
+   }
+
+
+/**
+ * Scans the images in the directories, list files (@file) and image
+ * files given on the command line.  Records go to standard output
+ * unless -o is given.
+ */
+   public static void main(String [] args) throws Exception {
+      int threads = Runtime.getRuntime().availableProcessors();
+      PrintWriter out = null;
+      List<File> images = new java.util.ArrayList<File>();
+
+      for (int i=0; i<args.length; i++) {
+         if (args[i].equals("-t") && i + 1 < args.length) {
+            threads = Integer.parseInt(args[++i]);
+         } else if (args[i].equals("-o") && i + 1 < args.length) {
+            out = new PrintWriter(new File(args[++i]), "UTF-8");
+         } else if (args[i].startsWith("@")) {
+            addList(new File(args[i].substring(1)), images);
+         } else if (new File(args[i]).isDirectory()) {
+            addDirectory(new File(args[i]), images);
+         } else {
+            images.add(new File(args[i]));
+         }
+      }
+      if (images.isEmpty()) {
+         System.err.println("usage: BatchScanner [-t threads] [-o out.jsonl] dir | @list | image ...");
+         System.exit(1);
+      }
+      if (out == null) {
+         out = new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"));
+      }
+
+      ImageIO.setUseCache(false);
+      new BatchScanner(threads).run(images, out);
+      out.close();
+   }
+}
@@ -0,0 +1,148 @@
+/*
+ * @(#) BatchScannerTest.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes.batch;
+
+import junit.framework.TestCase;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+import topcodes.PageRenderer;
+import topcodes.Scanner;
+import topcodes.TopCode;
+
+
+/**
+ * Runs the batch scanner over a directory of rendered pages and checks
+ * the JSON Lines records it writes.
+ *
+ * @author agent
+ */
+public class BatchScannerTest extends TestCase {
+
+   /** Width of the test pages */
+   protected static int W = 640;
+
+   /** Height of the test pages */
+   protected static int H = 480;
+
+   /** File name field of a record */
+   protected static Pattern FILE = Pattern.compile("\"file\":\"([^\"]*)\"");
+
+   /** Code found, as written in a record's "codes" array */
+   protected static Pattern CODE = Pattern.compile(
+      "\\{\"code\":(\\d+),\"x\":([-0-9.E]+),\"y\":([-0-9.E]+)," +
+      "\"diameter\":([-0-9.E]+),\"orientation\":([-0-9.E]+)\\}");
+
+
+/**
+ * Writes a page as an 8-bit gray PNG
+ */
+   protected void writePage(byte [] luma, File file) throws Exception {
+      BufferedImage image = new BufferedImage(W, H, BufferedImage.TYPE_BYTE_GRAY);
+      image.getRaster().setDataElements(0, 0, W, H, luma);
+      assertTrue(ImageIO.write(image, "png", file));
+   }
+
+
+/**
+ * Returns the codes in a record as "code x y" strings, in record order
+ */
+   protected List<String> codes(String record) {
+      List<String> codes = new ArrayList<String>();
+      Matcher m = CODE.matcher(record);
+      while (m.find()) {
+         codes.add(m.group(1) + " " + m.group(2) + " " + m.group(3));
+      }
+      return codes;
+   }
+
+
+   public void testRecordsForDirectoryOfPages() throws Exception {
+      File dir = File.createTempFile("batch", "");
+      assertTrue(dir.delete() && dir.mkdir());
+      Map<String, List<String>> expected = new HashMap<String, List<String>>();
+      try {
+         Scanner scanner = new Scanner();
+         for (int i=0; i<8; i++) {
+            PageRenderer page = new PageRenderer(W, H, 40 + i);
+            page.addRandomCodes(10, 40, 100);
+            page.setBlur(i % 2);
+            page.setNoise(4);
+            byte [] luma = page.renderLuma();
+            File file = new File(dir, "page" + i + ".png");
+            writePage(luma, file);
+
+            List<String> direct = new ArrayList<String>();
+            for (TopCode top : scanner.scan(luma, W, H, W)) {
+               direct.add(top.getCode() + " " + top.getCenterX() + " " + top.getCenterY());
+            }
+            assertEquals(page.getCodes().size(), direct.size());
+            expected.put(file.getPath(), direct);
+         }
+         File broken = new File(dir, "broken.png");
+         FileOutputStream junk = new FileOutputStream(broken);
+         junk.write("not an image".getBytes("UTF-8"));
+         junk.close();
+
+         List<File> images = new ArrayList<File>();
+         BatchScanner.addDirectory(dir, images);
+         assertEquals(9, images.size());
+
+         StringWriter text = new StringWriter();
+         new BatchScanner(3).run(images, new PrintWriter(text));
+         String [] records = text.toString().split("\r?\n");
+         assertEquals(9, records.length);
+
+         int errors = 0;
+         for (String record : records) {
+            assertTrue(record.startsWith("{") && record.endsWith("}"));
+            Matcher m = FILE.matcher(record);
+            assertTrue(m.find());
+            String path = m.group(1).replace("\\\\", "\\");
+            assertTrue(record.contains("\"timings\":{\"read\":"));
+            assertFalse(record.contains("\"compile\""));
+            if (path.equals(broken.getPath())) {
+               assertTrue(record.contains("\"error\":"));
+               assertFalse(record.contains("\"codes\""));
+               errors++;
+            } else {
+               assertTrue(record.contains("\"width\":" + W + ",\"height\":" + H));
+               assertTrue(record.contains(",\"scan\":"));
+               assertEquals(expected.remove(path), codes(record));
+            }
+         }
+         assertEquals(1, errors);
+         assertTrue(expected.isEmpty());
+      } finally {
+         for (File f : dir.listFiles()) f.delete();
+         dir.delete();
+      }
+   }
+}
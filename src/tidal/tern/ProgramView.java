@@ -32,6 +32,7 @@ import tidal.tern.rt.Debugger;
 import tidal.tern.rt.Interpreter;
 import tidal.tern.rt.Robot;
 import topcodes.TopCode;
+import topcodes.android.TopCodePainter;
 import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.res.Resources;
@@ -535,12 +536,12 @@ public class ProgramView extends View implements Debugger, Runnable {
             	   top.setDiameter( top.getDiameter() * 1.25f );
                    Log.i(TAG, s.getName() + " sticker is misplaced");
                    outlineTopCode(top, Color.RED, c);
-                   top.draw(c);
+                   TopCodePainter.draw(top, c);
                }
                 else {
              	   top.setDiameter( top.getDiameter() * 1.25f );
              	   outlineTopCode(top, Color.GREEN, c);
-             	   top.draw(c);
+             	   TopCodePainter.draw(top, c);
              	   this.numStatements++;
                 }
            }
@@ -34,6 +34,7 @@ import java.util.Map;
 import tidal.tern.ProgramView;
 import topcodes.Scanner;
 import topcodes.TopCode;
+import topcodes.android.BitmapImage;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.util.Log;
@@ -65,6 +66,7 @@ public class TangibleCompiler {
    
    public TangibleCompiler(Resources res, int statements, int driver) {
       this.scanner    = new Scanner();
+      this.scanner.setThreadCount(Runtime.getRuntime().availableProcessors());
       this.tcompiler  = new TextCompiler();
       this.header     = "";
       this.skills     = new java.util.HashMap<String, String>();
@@ -94,14 +96,21 @@ public class TangibleCompiler {
  */
    
    public Program collect(Bitmap image) throws CompileException {
-      
-      Program program = new Program();
 
       //-----------------------------------------------------------
       // 1. Create a list of topcodes from the bitmap image
       //-----------------------------------------------------------
-      List<TopCode> spots = scanner.scan(image);
+      return collect(scanner.scan(new BitmapImage(image)));
+   }
+
 
+/**
+ * Tangible collect function for topcodes that have already been found
+ * in an image (e.g. by a batch scan)
+ */
+   public Program collect(List<TopCode> spots) throws CompileException {
+
+      Program program = new Program();
 
       //-----------------------------------------------------------
       // 2. Convert topcodes to statements
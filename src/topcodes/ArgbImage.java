@@ -0,0 +1,101 @@
+/*
+ * @(#) ArgbImage.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes;
+
+
+/**
+ * An ImageSource for an array of packed ARGB pixels (as returned by
+ * Bitmap.getPixels or BufferedImage.getRGB).  The intensity of a pixel
+ * is the average of its red, green and blue components; alpha is
+ * ignored.
+ *
+ * @author agent
+ */
+public class ArgbImage implements ImageSource {
+
+   /** ARGB pixels; pixel (x, y) is pixels[y * stride + x] */
+   protected int [] pixels;
+
+   /** Width of the image in pixels */
+   protected int width;
+
+   /** Height of the image in pixels */
+   protected int height;
+
+   /** Distance between rows in the pixel array */
+   protected int stride;
+
+
+/**
+ * Wraps an image with rows of width pixels and no padding.
+ */
+   public ArgbImage(int [] pixels, int width, int height) {
+      this(pixels, width, height, width);
+   }
+
+
+/**
+ * Wraps an image whose rows are stride pixels apart.
+ */
+   public ArgbImage(int [] pixels, int width, int height, int stride) {
+      this.pixels = pixels;
+      this.width  = width;
+      this.height = height;
+      this.stride = stride;
+   }
+
+
+/**
+ * Returns the width of the image in pixels
+ */
+   public int getWidth() {
+      return this.width;
+   }
+
+
+/**
+ * Returns the height of the image in pixels
+ */
+   public int getHeight() {
+      return this.height;
+   }
+
+
+/**
+ * Reads the intensities of width pixels of row y, starting at column x
+ */
+   public void readRow(int x, int y, int width, int [] row) {
+      int k = y * stride + x;
+      for (int i=0; i<width; i++) {
+         row[i] = intensity(pixels[k++]);
+      }
+   }
+
+
+/**
+ * Returns the intensity (0 to 255) of an ARGB pixel.
+ */
+   public static int intensity(int pixel) {
+      int r = (pixel >> 16) & 0xff;
+      int g = (pixel >> 8) & 0xff;
+      int b = pixel & 0xff;
+      return (r + g + b) / 3;
+   }
+}
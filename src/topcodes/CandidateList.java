@@ -0,0 +1,84 @@
+/*
+ * @(#) CandidateList.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes;
+
+
+/**
+ * A growable list of candidate pixels, each stored as its offset
+ * y * width + x in the image.  The scanner appends candidates as it
+ * marks rows, so decoding only visits these pixels instead of walking
+ * the whole candidate plane.  The array is kept between scans.
+ *
+ * @author agent
+ */
+public class CandidateList {
+
+   /** Pixel offsets (y * width + x) */
+   protected int [] items;
+
+   /** Number of candidates in the list */
+   protected int size;
+
+
+/**
+ * Default constructor
+ */
+   public CandidateList() {
+      this.items = new int[64];
+      this.size  = 0;
+   }
+
+
+/**
+ * Returns the number of candidates in the list
+ */
+   public int size() {
+      return this.size;
+   }
+
+
+/**
+ * Returns the offset (y * width + x) of the i'th candidate
+ */
+   public int get(int i) {
+      return items[i];
+   }
+
+
+/**
+ * Empties the list
+ */
+   public void clear() {
+      this.size = 0;
+   }
+
+
+/**
+ * Adds the given offset to the end of the list
+ */
+   public void add(int offset) {
+      if (size == items.length) {
+         int [] t = new int[size * 2];
+         System.arraycopy(items, 0, t, 0, size);
+         items = t;
+      }
+      items[size++] = offset;
+   }
+}
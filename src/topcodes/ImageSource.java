@@ -0,0 +1,52 @@
+/*
+ * @(#) ImageSource.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes;
+
+
+/**
+ * An image that the Scanner can read one row at a time.  This is the
+ * only way the scanner sees pixels, so it runs anywhere there is an
+ * adapter for the platform's images: ArgbImage and LumaImage wrap
+ * arrays of pixels, and topcodes.android.BitmapImage wraps an Android
+ * Bitmap.
+ *
+ * Sources only have to hand over the rows they are asked for, so a very
+ * large image can be scanned (see Scanner.setStripHeight) without ever
+ * being held in memory all at once, e.g. by decoding it from a file or
+ * stream as rows are needed.  Rows are requested in increasing order
+ * within each strip, but strips overlap, so some rows are read twice.
+ *
+ * @author agent
+ */
+public interface ImageSource {
+
+   /** Width of the image in pixels */
+   public int getWidth();
+
+   /** Height of the image in pixels */
+   public int getHeight();
+
+   /**
+    * Reads the intensities (0 to 255) of the given number of pixels of
+    * row y, starting from column x, into row[0] to row[width - 1].
+    */
+   public void readRow(int x, int y, int width, int [] row);
+
+}
@@ -0,0 +1,90 @@
+/*
+ * @(#) LumaImage.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes;
+
+
+/**
+ * An ImageSource for an 8-bit luminance plane, such as the Y plane at
+ * the start of an NV21 camera preview frame or a grayscale image.
+ * Scanner.scan(byte[], int, int, int) reads the same planes without
+ * going through an ImageSource.
+ *
+ * @author agent
+ */
+public class LumaImage implements ImageSource {
+
+   /** Intensities; pixel (x, y) is luma[y * stride + x] & 0xff */
+   protected byte [] luma;
+
+   /** Width of the image in pixels */
+   protected int width;
+
+   /** Height of the image in pixels */
+   protected int height;
+
+   /** Distance between rows in bytes */
+   protected int stride;
+
+
+/**
+ * Wraps a plane with rows of width bytes and no padding.
+ */
+   public LumaImage(byte [] luma, int width, int height) {
+      this(luma, width, height, width);
+   }
+
+
+/**
+ * Wraps a plane whose rows are stride bytes apart.
+ */
+   public LumaImage(byte [] luma, int width, int height, int stride) {
+      this.luma   = luma;
+      this.width  = width;
+      this.height = height;
+      this.stride = stride;
+   }
+
+
+/**
+ * Returns the width of the image in pixels
+ */
+   public int getWidth() {
+      return this.width;
+   }
+
+
+/**
+ * Returns the height of the image in pixels
+ */
+   public int getHeight() {
+      return this.height;
+   }
+
+
+/**
+ * Reads the intensities of width pixels of row y, starting at column x
+ */
+   public void readRow(int x, int y, int width, int [] row) {
+      int k = y * stride + x;
+      for (int i=0; i<width; i++) {
+         row[i] = luma[k++] & 0xff;
+      }
+   }
+}
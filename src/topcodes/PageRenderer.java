@@ -0,0 +1,401 @@
+/*
+ * @(#) PageRenderer.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes;
+
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Renders synthetic pages of TopCodes for testing the scanner.  Codes
+ * are drawn at given (or random) positions, sizes and orientations on
+ * a plain background, and the page can then be blurred, unevenly lit
+ * and made noisy to look more like a photo.  The codes that were drawn
+ * are kept as the ground truth for the page.
+ *
+ * Everything random (placement, codes and noise) comes from a single
+ * seed, so a renderer with the same settings and seed always produces
+ * the same page.  Noise is drawn afresh from the seed on every render,
+ * so rendering a page again (as luminance or ARGB) gives the same
+ * pixels and doesn't change where later codes are placed.  Pages are
+ * plain Java arrays (8-bit luminance or ARGB), so they can be rendered
+ * on any JVM.
+ *
+ * @author agent
+ */
+public class PageRenderer {
+
+   /** Width of the page in pixels */
+   protected int width;
+
+   /** Height of the page in pixels */
+   protected int height;
+
+   /** Seed the page was created with */
+   protected long seed;
+
+   /** Random number generator for placement */
+   protected Random random;
+
+   /** Intensity (0-255) of the background and of white ink */
+   protected int paper;
+
+   /** Intensity (0-255) of black ink */
+   protected int ink;
+
+   /** Standard deviation of the Gaussian blur in pixels (0 for none) */
+   protected float blur;
+
+   /** Standard deviation of the pixel noise in intensity levels */
+   protected float noise;
+
+   /** Fraction of light lost across the page (0 for even lighting) */
+   protected float falloff;
+
+   /** Direction of the lighting gradient (radians, toward the dark side) */
+   protected float direction;
+
+   /** Codes drawn on the page */
+   protected List<TopCode> codes;
+
+   /** Groups of bars drawn on the page (x, y, stroke width, height) */
+   protected List<float[]> bars;
+
+
+/**
+ * Creates a renderer for blank pages of the given size
+ */
+   public PageRenderer(int width, int height, long seed) {
+      this.width     = width;
+      this.height    = height;
+      this.seed      = seed;
+      this.random    = new Random(seed);
+      this.paper     = 232;
+      this.ink       = 20;
+      this.blur      = 0;
+      this.noise     = 0;
+      this.falloff   = 0;
+      this.direction = 0;
+      this.codes     = new java.util.ArrayList<TopCode>();
+      this.bars      = new java.util.ArrayList<float[]>();
+   }
+
+
+/**
+ * Returns the width of the page
+ */
+   public int getWidth() {
+      return this.width;
+   }
+
+
+/**
+ * Returns the height of the page
+ */
+   public int getHeight() {
+      return this.height;
+   }
+
+
+/**
+ * Sets the intensities (0-255) used for paper and for black ink
+ */
+   public void setContrast(int paper, int ink) {
+      this.paper = paper;
+      this.ink   = ink;
+   }
+
+
+/**
+ * Blurs the page with a Gaussian of the given standard deviation (in
+ * pixels) to simulate focus and motion blur.
+ */
+   public void setBlur(float sigma) {
+      this.blur = Math.max(0, sigma);
+   }
+
+
+/**
+ * Adds Gaussian pixel noise with the given standard deviation (in
+ * intensity levels).
+ */
+   public void setNoise(float sigma) {
+      this.noise = Math.max(0, sigma);
+   }
+
+
+/**
+ * Darkens the page linearly in the given direction (in radians, 0
+ * points to the right and PI/2 down the page).  A falloff of 0.5
+ * means the darkest corner gets half as much light as the brightest.
+ */
+   public void setLighting(float falloff, float direction) {
+      this.falloff   = Math.max(0, Math.min(1, falloff));
+      this.direction = direction;
+   }
+
+
+/**
+ * Places a code on the page.  The orientation follows the convention
+ * of TopCode.draw (and of the orientation reported by the scanner).
+ * Returns the ground truth entry for the code.
+ */
+   public TopCode addCode(int code, float x, float y, float diameter, float orientation) {
+      TopCode top = new TopCode(code);
+      top.setLocation(x, y);
+      top.setDiameter(diameter);
+      top.setOrientation(orientation);
+      codes.add(top);
+      return top;
+   }
+
+
+/**
+ * Places up to n random valid codes with diameters between dmin and
+ * dmax at random positions and orientations.  Codes are kept clear of
+ * the page edges and of each other, so fewer than n codes are placed
+ * if the page fills up.  Returns the number of codes placed.
+ */
+   public int addRandomCodes(int n, float dmin, float dmax) {
+      TopCode [] valid = TopCode.generateCodes();
+      int placed = 0;
+
+      for (int tries = 0; placed < n && tries < n * 50; tries++) {
+         float d = dmin + random.nextFloat() * (dmax - dmin);
+         float x = d * 0.75f + random.nextFloat() * (width - d * 1.5f);
+         float y = d * 0.75f + random.nextFloat() * (height - d * 1.5f);
+         float a = random.nextFloat() * 2 * TopCode.PI;
+         int code = valid[random.nextInt(valid.length)].getCode();
+         if (isClear(x, y, d)) {
+            addCode(code, x, y, d, a);
+            placed++;
+         }
+      }
+      return placed;
+   }
+
+
+/**
+ * Places up to n groups of three upright bars, each stroke pixels wide
+ * with a stroke-wide gap between them, clear of the codes placed so far.
+ * Rows across a group look like a line through a bullseye, as the
+ * strokes of text and ruled lines do on real pages, but columns don't.
+ * Returns the number of groups placed.
+ */
+   public int addBars(int n, float stroke) {
+      float bw = stroke * 5;
+      float bh = stroke * 12;
+      int placed = 0;
+
+      for (int tries = 0; placed < n && tries < n * 50; tries++) {
+         float x = random.nextFloat() * (width - bw);
+         float y = random.nextFloat() * (height - bh);
+         if (isClear(x + bw * 0.5f, y + bh * 0.5f, bh)) {
+            bars.add(new float[] { x, y, stroke, bh });
+            placed++;
+         }
+      }
+      return placed;
+   }
+
+
+/**
+ * Returns true if a code of diameter d at (x, y) would leave a gap of
+ * at least a quarter of a diameter to every code placed so far.
+ */
+   protected boolean isClear(float x, float y, float d) {
+      for (TopCode top : codes) {
+         float dx = top.getCenterX() - x;
+         float dy = top.getCenterY() - y;
+         float gap = (top.getDiameter() + d) * 0.5f + d * 0.25f;
+         if (dx * dx + dy * dy < gap * gap) return false;
+      }
+      return true;
+   }
+
+
+/**
+ * Returns the ground truth: every code drawn on the page
+ */
+   public List<TopCode> getCodes() {
+      return this.codes;
+   }
+
+
+/**
+ * Renders the page as an 8-bit luminance plane (one byte per pixel,
+ * row by row).  Can be passed straight to Scanner.scan(byte[], int,
+ * int, int).
+ */
+   public byte [] renderLuma() {
+      float [] page = render();
+      byte [] luma = new byte[width * height];
+      for (int i=0; i<luma.length; i++) {
+         luma[i] = (byte)clamp(page[i]);
+      }
+      return luma;
+   }
+
+
+/**
+ * Renders the page as gray ARGB pixels (one int per pixel, row by
+ * row), e.g. for Bitmap.createBitmap.
+ */
+   public int [] renderARGB() {
+      float [] page = render();
+      int [] argb = new int[width * height];
+      for (int i=0; i<argb.length; i++) {
+         int v = clamp(page[i]);
+         argb[i] = 0xff000000 | (v << 16) | (v << 8) | v;
+      }
+      return argb;
+   }
+
+
+/**
+ * Draws the codes, then applies blur, lighting and noise
+ */
+   protected float [] render() {
+      Random grain = new Random(seed ^ 0x6e6f697365L);
+      float [] page = new float[width * height];
+      java.util.Arrays.fill(page, paper);
+      for (TopCode top : codes) {
+         draw(page, top);
+      }
+      for (float [] bar : bars) {
+         int i0 = (int)bar[0];
+         int j0 = (int)bar[1];
+         int stroke = Math.max(1, (int)bar[2]);
+         for (int j=j0; j<j0 + (int)bar[3]; j++) {
+            for (int i=i0; i<i0 + stroke * 5; i++) {
+               if ((i - i0) / stroke % 2 == 0) page[j * width + i] = ink;
+            }
+         }
+      }
+      if (blur > 0) {
+         blur(page);
+      }
+
+      float dx = (float)Math.cos(direction);
+      float dy = (float)Math.sin(direction);
+      float x0 = Math.min(0, dx * width) + Math.min(0, dy * height);
+      float x1 = Math.max(0, dx * width) + Math.max(0, dy * height);
+      float span = Math.max(1, x1 - x0);
+      for (int j=0; j<height; j++) {
+         for (int i=0; i<width; i++) {
+            float t = (i * dx + j * dy - x0) / span;
+            float v = page[j * width + i] * (1 - falloff * t);
+            if (noise > 0) {
+               v += (float)grain.nextGaussian() * noise;
+            }
+            page[j * width + i] = v;
+         }
+      }
+      return page;
+   }
+
+
+/**
+ * Draws a single code, antialiased with 4x4 samples per pixel
+ */
+   protected void draw(float [] page, TopCode top) {
+      float unit = top.getDiameter() / TopCode.WIDTH;
+      float cx = top.getCenterX();
+      float cy = top.getCenterY();
+      int code = top.getCode();
+      float r = top.getDiameter() * 0.5f;
+      int i0 = Math.max(0, (int)(cx - r) - 1);
+      int i1 = Math.min(width - 1, (int)(cx + r) + 1);
+      int j0 = Math.max(0, (int)(cy - r) - 1);
+      int j1 = Math.min(height - 1, (int)(cy + r) + 1);
+
+      for (int j=j0; j<=j1; j++) {
+         for (int i=i0; i<=i1; i++) {
+            float sum = 0;
+            for (int s=0; s<16; s++) {
+               float x = i + 0.125f + 0.25f * (s & 3) - cx;
+               float y = j + 0.125f + 0.25f * (s >> 2) - cy;
+               float ring = (float)Math.sqrt(x * x + y * y) / unit;
+               if (ring >= 4) {
+                  sum += page[j * width + i];
+               } else if (ring < 1 || (ring >= 2 && ring < 3)) {
+                  sum += paper;
+               } else if (ring < 2) {
+                  sum += ink;
+               } else {
+                  float a = (float)Math.atan2(y, x) - top.getOrientation();
+                  int sector = (int)Math.floor(a / TopCode.ARC);
+                  sector = ((sector % TopCode.SECTORS) + TopCode.SECTORS) % TopCode.SECTORS;
+                  sum += (((code >> sector) & 1) == 1) ? paper : ink;
+               }
+            }
+            page[j * width + i] = sum / 16;
+         }
+      }
+   }
+
+
+/**
+ * Separable Gaussian blur of the page
+ */
+   protected void blur(float [] page) {
+      int r = (int)Math.ceil(blur * 3);
+      float [] kernel = new float[r * 2 + 1];
+      float total = 0;
+      for (int k=-r; k<=r; k++) {
+         kernel[k + r] = (float)Math.exp(-(k * k) / (2 * blur * blur));
+         total += kernel[k + r];
+      }
+      for (int k=0; k<kernel.length; k++) {
+         kernel[k] /= total;
+      }
+
+      float [] line = new float[Math.max(width, height)];
+      for (int j=0; j<height; j++) {
+         for (int i=0; i<width; i++) {
+            float v = 0;
+            for (int k=-r; k<=r; k++) {
+               int x = Math.max(0, Math.min(width - 1, i + k));
+               v += kernel[k + r] * page[j * width + x];
+            }
+            line[i] = v;
+         }
+         System.arraycopy(line, 0, page, j * width, width);
+      }
+      for (int i=0; i<width; i++) {
+         for (int j=0; j<height; j++) {
+            float v = 0;
+            for (int k=-r; k<=r; k++) {
+               int y = Math.max(0, Math.min(height - 1, j + k));
+               v += kernel[k + r] * page[y * width + i];
+            }
+            line[j] = v;
+         }
+         for (int j=0; j<height; j++) {
+            page[j * width + i] = line[j];
+         }
+      }
+   }
+
+
+   protected static int clamp(float v) {
+      return Math.max(0, Math.min(255, Math.round(v)));
+   }
+}
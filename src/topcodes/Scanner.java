@@ -24,8 +24,13 @@
  */
 package topcodes;
 
+import java.util.Arrays;
 import java.util.List;
-import android.graphics.Bitmap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 
 /**
@@ -35,10 +40,43 @@ import android.graphics.Bitmap;
  * black and white regions meet certain ratio constraints, then the
  * pixel is tested as the center of a candidate TopCode.
  *
+ * Images are read one row at a time from an ImageSource, so the scanner
+ * doesn't depend on any platform's image classes: ArgbImage and
+ * LumaImage wrap pixel arrays, topcodes.android.BitmapImage wraps an
+ * Android Bitmap, and other platforms supply their own adapter (e.g.
+ * for a java.awt.image.BufferedImage on a desktop JVM).  The scanner
+ * keeps a bit-packed black and white copy of the image and a bitset of
+ * candidate pixels (each 1/32 the size of an ARGB image), plus a couple
+ * of single-row buffers for the threshold filter.  Candidates are
+ * listed as rows are marked, so decoding never has to sweep the image
+ * again.  All buffers are kept between scans, and scanInto() reuses the
+ * codes of a TopCodeList, so a continuous scan of camera frames creates
+ * no garbage once it has warmed up.
+ *
+ * Large photos can be pre-scanned at a lower resolution (see
+ * setPrescale).  Candidates found in the small image are then decoded
+ * from small full-resolution windows around each one.
+ *
+ * Scans can optionally be spread across several worker threads (see
+ * setThreadCount).  The image is divided into horizontal bands that are
+ * marked and decoded in parallel.  Codes are then merged in raster
+ * order so that the results are identical to a single-threaded scan.
+ *
  * @author Michael Horn
  */
 public class Scanner {
 
+   /** Wellner's running-average threshold (the default) */
+   public static final int THRESHOLD_WELLNER  = 0;
+
+   /** Local-mean threshold computed from an integral image */
+   public static final int THRESHOLD_INTEGRAL = 1;
+
+   /** Decode by trying every unit and arc adjustment (the default) */
+   public static final int DECODE_EXHAUSTIVE  = 0;
+
+   /** Decode with a coarse search refined around the best reading */
+   public static final int DECODE_COARSE      = 1;
 
    /** Total width of image */
    protected int w;
@@ -46,8 +84,38 @@ public class Scanner {
    /** Total height of image */
    protected int h;
 
-   /** Holds processed binary pixel data */
-   protected int[] data;
+   /** Left edge of the scanned region within the source image */
+   protected int ox;
+
+   /** Top edge of the scanned region within the source image */
+   protected int oy;
+
+   /** Number of ints in each row of the bit planes */
+   protected int span;
+
+   /** Binary (thresholded) image, one bit per pixel, 1 = white */
+   protected int[] bits;
+
+   /** Candidate bullseye centers, one bit per pixel */
+   protected int[] marks;
+
+   /** Running threshold sums from the previous row */
+   protected int[] sums;
+
+   /** Intensity values (0-255) for the row being thresholded */
+   protected int[] line;
+
+   /** 8-bit luminance plane being scanned (or null) */
+   protected byte[] luma;
+
+   /** Row stride of the luminance plane in bytes */
+   protected int stride;
+
+   /** Row-by-row image source being scanned (or null) */
+   protected ImageSource source;
+
+   /** Rows per strip for strip scans (0 to scan the whole image at once) */
+   protected int strip;
 
    /** Candidate code count */
    protected int ccount;
@@ -55,8 +123,170 @@ public class Scanner {
    /** Number of candidates tested */
    protected int tcount;
 
-   /** Maximum width of a TopCode unit in pixels */
+   /** Number of candidates skipped because they were inside a code */
+   protected int ocount;
+
+   /** Number of candidates rejected by the cross check before decode */
+   protected int rcount;
+
+   /** Codes found so far in the current scan, indexed by position */
+   protected SpotGrid grid;
+
+   /** Candidates (marked pixels with four marked neighbors) in raster order */
+   protected CandidateList cands;
+
+   /** True if touching candidates are decoded once per cluster */
+   protected boolean cluster;
+
+   /** Number of clusters of candidates in the last scan */
+   protected int bcount;
+
+   /** Cluster of each candidate (index of its first candidate) */
+   protected int [] parent;
+
+   /** Next candidate in the same cluster, further from its centroid (or -1) */
+   protected int [] member;
+
+   /** Last candidate of each cluster found so far */
+   protected int [] tail;
+
+   /** Sum of the x coordinates of the candidates in each cluster */
+   protected int [] sumx;
+
+   /** Sum of the y coordinates of the candidates in each cluster */
+   protected int [] sumy;
+
+   /** Number of candidates in each cluster */
+   protected int [] area;
+
+   /** Candidate of each cluster nearest its centroid */
+   protected int [] center;
+
+   /** Squared distances of a cluster's candidates from its centroid */
+   protected long [] order;
+
+   /** Maximum width of a TopCode unit in pixels (for the next scan) */
    protected int maxu;
+
+   /** Minimum width (in pixels) of a bullseye ring (for the next scan) */
+   protected int minrun;
+
+   /** Maximum width of a TopCode unit set by setMaxCodeDiameter */
+   protected int limitu;
+
+   /** Narrowest bullseye ring (in pixels) accepted by a wide scan */
+   protected static int MIN_RUN = 2;
+
+   /** Scans between wide scans when auto-calibrating (0 = off) */
+   protected int calibrate;
+
+   /** Number of scans since the last wide scan */
+   protected int scans;
+
+   /** Codes found since the last wide scan, counted by unit width */
+   protected int [] units;
+
+   /** Fraction added to either side of the calibrated unit widths */
+   protected static float CALIBRATE_MARGIN = 0.25f;
+
+   /** Thresholding algorithm (THRESHOLD_WELLNER or THRESHOLD_INTEGRAL) */
+   protected int tmode;
+
+   /** Summed-area table of intensities or of the black and white image */
+   protected int[] integral;
+
+   /** True if decode samples are averaged over windows scaled to the code */
+   protected boolean scaled;
+
+   /** True if decode sample positions are computed in 16.16 fixed point */
+   protected boolean fixed;
+
+   /** True if bullseyes are matched over run lengths instead of pixels */
+   protected boolean rle;
+
+   /** Run boundaries of the row being marked (see markRuns) */
+   protected int [] edges;
+
+   /** True if candidates are checked across the bullseye before decode */
+   protected boolean cross;
+
+   /** Pixels darker than the local mean by this percent are black */
+   protected static int INTEGRAL_T = 20;
+
+   /** Integral threshold windows are 1/INTEGRAL_S of the image across */
+   protected static int INTEGRAL_S = 32;
+
+   /** Half width of the integral threshold window in pixels */
+   protected int radius;
+
+   /** Pre-scan downsampling factor (1 = no pre-scan) */
+   protected int prescale;
+
+   /** Scanner used for the low-resolution pre-scan */
+   protected Scanner coarse;
+
+   /** Downsampled luminance plane for pre-scans */
+   protected byte [] shrunk;
+
+   /** Codes found in a pre-scan window or strip */
+   protected TopCodeList window;
+
+   /** Codes found so far by a pre-scan or strip scan, indexed by position */
+   protected SpotGrid found;
+
+   /** Pre-scan windows scanned so far (center x, center y, radius) */
+   protected int [] windows;
+
+   /** Codes cut off by a pre-scan window (center x, center y, radius) */
+   protected int [] cuts;
+
+   /** Candidates tested, skipped and rejected by the pre-scan windows */
+   protected int [] tally;
+
+   /** Pre-scan ring width (in shrunk pixels) used when it can't be read */
+   protected static int PRESCALE_UNIT = 3;
+
+   /** Decode search strategy (DECODE_EXHAUSTIVE or DECODE_COARSE) */
+   protected int dmode;
+
+   /** Confidence (0 to 1) at which a coarse decode stops searching */
+   protected float dconf;
+
+   /** Number of worker threads used for a scan */
+   protected int threads;
+
+   /** Worker threads for parallel scans (created on demand) */
+   protected ExecutorService pool;
+
+   /** Bands of the last parallel scan (kept for reuse) */
+   protected Band [] bands;
+
+   /** Minimum height of a band (in rows) for parallel scans */
+   protected static int MIN_BAND = 32;
+
+   /** Batches of the last parallel decode (kept for reuse) */
+   protected Batch [] batches;
+
+   /** Minimum number of candidates in a batch for parallel decodes */
+   protected static int MIN_BATCH = 16;
+
+   /** Result of decoding each candidate ahead of the merge */
+   protected int [] state;
+
+   /** Code found at each candidate ahead of the merge (if DECODED) */
+   protected TopCode [] ahead;
+
+   /** Candidate state: not tried (or inside a code found in its batch) */
+   protected static final int UNTESTED = -1;
+
+   /** Candidate state: tested but did not decode */
+   protected static final int FAILED = -2;
+
+   /** Candidate state: rejected by the cross check */
+   protected static final int REJECTED = -3;
+
+   /** Candidate state: decoded into a valid code */
+   protected static final int DECODED = -4;
    
 
 
@@ -66,26 +296,247 @@ public class Scanner {
    public Scanner() {
       this.w       = 0;
       this.h       = 0;
-      this.data    = null;
+      this.ox      = 0;
+      this.oy      = 0;
+      this.span    = 0;
+      this.bits    = null;
+      this.marks   = null;
+      this.sums    = null;
+      this.line    = null;
+      this.luma    = null;
+      this.stride  = 0;
+      this.source  = null;
+      this.strip   = 0;
       this.ccount  = 0;
       this.tcount  = 0;
+      this.ocount  = 0;
+      this.rcount  = 0;
+      this.grid    = new SpotGrid();
+      this.cands   = new CandidateList();
+      this.cluster = false;
+      this.bcount  = 0;
+      this.parent  = null;
+      this.member  = null;
+      this.tail    = null;
+      this.sumx    = null;
+      this.sumy    = null;
+      this.area    = null;
+      this.center  = null;
+      this.order   = null;
       this.maxu    = 80;
+      this.minrun  = MIN_RUN;
+      this.limitu  = 80;
+      this.calibrate = 0;
+      this.scans   = 0;
+      this.units   = null;
+      this.tmode   = THRESHOLD_WELLNER;
+      this.integral = null;
+      this.scaled  = false;
+      this.fixed   = false;
+      this.rle     = false;
+      this.edges   = null;
+      this.cross   = false;
+      this.radius  = 0;
+      this.prescale = 1;
+      this.coarse  = null;
+      this.shrunk  = null;
+      this.window  = null;
+      this.found   = null;
+      this.windows = null;
+      this.dmode   = DECODE_EXHAUSTIVE;
+      this.dconf   = 0.9f;
+      this.threads = 1;
+      this.pool    = null;
+      this.bands   = null;
+      this.batches = null;
+      this.state   = null;
+      this.ahead   = null;
+   }
+
+
+/**
+ * Scan an 8-bit luminance plane and return a list of all topcodes found
+ * in it.  Pixel (x, y) is read from luma[y * stride + x].  The Y plane at
+ * the start of an NV21 camera preview frame can be passed in directly
+ * (with a stride equal to the width), so no Bitmap needs to be decoded.
+ * Same as scanning a LumaImage, but without a call per row.
+ * Pixels are read straight from the plane instead of being unpacked
+ * from ARGB values.
+ */
+   public List<TopCode> scan(byte[] luma, int width, int height, int stride) {
+      TopCodeList out = new TopCodeList();
+      scanInto(luma, width, height, stride, out);
+      return new java.util.ArrayList<TopCode>(out);
+   }
+
+
+/**
+ * Same as scan(byte[], int, int, int), but the topcodes found replace
+ * the contents of the given list (see scanInto(ImageSource, TopCodeList)).
+ */
+   public void scanInto(byte[] luma, int width, int height, int stride,
+                        TopCodeList out) {
+      setRegion(0, 0, width, height);
+      this.luma    = luma;
+      this.stride  = stride;
+      try {
+         process(out);
+      } finally {
+         this.luma = null;
+      }
    }
 
 
 /**
  * Scan the given image and return a list of all topcodes found in it.
+ * The image is read one row at a time, so together with
+ * setStripHeight, images that are too big to decode into memory can
+ * be scanned a strip at a time.
+ */
+   public List<TopCode> scan(ImageSource image) {
+      TopCodeList out = new TopCodeList();
+      scanInto(image, out);
+      return new java.util.ArrayList<TopCode>(out);
+   }
+
+
+/**
+ * Scan the given image and replace the contents of the given list with
+ * the topcodes found in it.  Entries of the list are reused, so once
+ * the list and the scanner's buffers have grown to fit, repeated
+ * single-threaded scans of same-sized images create no garbage.
  */
-   public List<TopCode> scan(Bitmap image) {
-      this.w       = image.getWidth();
-      this.h       = image.getHeight();
-      if (data == null || data.length < w * h) {
-         this.data  = new int[w * h];
+   public void scanInto(ImageSource image, TopCodeList out) {
+      setRegion(0, 0, image.getWidth(), image.getHeight());
+      this.source = image;
+      try {
+         process(out);
+      } finally {
+         this.source = null;
+      }
+   }
+
+
+/**
+ * Selects the region of the source image to threshold and scan, and
+ * makes sure the row buffers are large enough.  All pixel coordinates
+ * used while scanning (including those of decoded codes) are relative
+ * to the region.
+ */
+   protected void setRegion(int x, int y, int width, int height) {
+      this.ox      = x;
+      this.oy      = y;
+      this.w       = width;
+      this.h       = height;
+      this.span    = (w + 31) >> 5;
+      if (line == null || line.length < w) {
+         this.line  = new int[w];
+         this.sums  = new int[w];
+      }
+   }
+
+
+/**
+ * Makes sure the bit planes are large enough for the current region.
+ * Planes are kept between scans.
+ */
+   protected void reserve() {
+      if (bits == null || bits.length < span * h) {
+         this.bits  = new int[span * h];
+         this.marks = new int[span * h];
+      }
+   }
+
+
+/**
+ * Reads intensity values (0-255) for row j of the current image into
+ * the given buffer.
+ */
+   protected void loadRow(int j, int[] row) {
+      if (source != null) {
+         source.readRow(ox, oy + j, w, row);
+      } else {
+         int k = (oy + j) * stride + ox;
+         for (int i=0; i<w; i++) {
+            row[i] = luma[k++] & 0xff;
+         }
+      }
+   }
+
+
+/**
+ * Thresholds and scans the current image, replacing the contents of
+ * out with the topcodes found.
+ */
+   protected void process(TopCodeList out) {
+      this.radius = Math.max(w, h) / (INTEGRAL_S * 2);
+      out.clear();
+      calibrateBounds();
+
+      if (strip > 0 && h > strip + getStripOverlap()) {
+         stripScan(out);
+      }
+      else if (prescale > 1 && w >= prescale * 16 && h >= prescale * 16) {
+         pyramidScan(out);
+      }
+      else if (threads > 1 && h >= MIN_BAND * 2) {
+         parallelScan(out, 128);
+      }
+      else {
+         threshold();       // run the adaptive threshold filter
+         findCodes(out);    // scan for topcodes
+      }
+      calibrate(out);
+   }
+
+
+/**
+ * Sets the bullseye ring widths accepted by the next scan from the
+ * codes found since the last wide scan, or sets up a wide scan if one
+ * is due.
+ */
+   protected void calibrateBounds() {
+      if (calibrate == 0) return;
+      if (units == null) this.units = new int[256];
+
+      int lo = -1;
+      int hi = -1;
+      if (scans > 0 && scans < calibrate) {
+         for (int u=0; u<units.length; u++) {
+            if (units[u] > 0) {
+               if (lo < 0) lo = u;
+               hi = u;
+            }
+         }
+      }
+
+      if (lo < 0) {
+         Arrays.fill(units, 0);
+         this.scans  = 0;
+         this.maxu   = limitu;
+         this.minrun = MIN_RUN;
+      } else {
+         this.minrun = Math.max(MIN_RUN, (int)(lo * (1 - CALIBRATE_MARGIN)) - 1);
+         this.maxu   = Math.min(limitu, (int)Math.ceil(hi * (1 + CALIBRATE_MARGIN)) + 1);
       }
-      image.getPixels(this.data, 0, w, 0, 0, w, h);
-      
-      threshold();          // run the adaptive threshold filter
-      return findCodes();   // scan for topcodes
+   }
+
+
+/**
+ * Counts the sizes of the codes found by a scan.  A calibrated scan
+ * that finds nothing makes the next scan a wide one.
+ */
+   protected void calibrate(List<TopCode> codes) {
+      if (calibrate == 0) return;
+      if (codes.isEmpty()) {
+         this.scans = 0;
+         return;
+      }
+      for (int i=0; i<codes.size(); i++) {
+         int u = Math.round(codes.get(i).getDiameter() / TopCode.WIDTH);
+         units[Math.min(u, units.length - 1)]++;
+      }
+      this.scans++;
    }
 
 
@@ -119,262 +570,1683 @@ public class Scanner {
  */
    public void setMaxCodeDiameter(int diameter) {
       float f = diameter / 8.0f;
-      this.maxu = (int)Math.ceil(f);
+      this.limitu = (int)Math.ceil(f);
+      this.maxu   = limitu;
+      this.minrun = MIN_RUN;
+      this.scans  = 0;
    }
 
-   
+
 /**
- * Returns the number of candidate topcodes found during a scan
+ * Turns on automatic calibration of the code sizes looked for.  The
+ * diameters of the codes found are counted, and each scan only marks
+ * bullseyes whose rings are between the narrowest and widest codes
+ * found since the last wide scan (plus a 25% margin), so that far fewer
+ * false candidates are tested.  A wide scan (looking for every size up
+ * to the maximum diameter) is run every given number of scans, and
+ * after any calibrated scan that finds no codes.  This suits a camera
+ * looking at pages with codes of similar size; codes much larger or
+ * smaller than the others can be missed until the next wide scan.
+ * Pass 0 (the default) to turn calibration off.
  */
-   protected int getCandidateCount() {
-      return this.ccount;
+   public void setAutoCalibration(int interval) {
+      this.calibrate = Math.max(0, interval);
+      this.maxu      = limitu;
+      this.minrun    = MIN_RUN;
+      this.scans     = 0;
    }
 
 
 /**
- * Returns the number of topcodes tested during a scan
+ * Returns the number of scans between wide scans (0 if automatic
+ * calibration is off).
  */
-   protected int getTestedCount() {
-      return this.tcount;
+   public int getAutoCalibration() {
+      return this.calibrate;
    }
 
 
 /**
- * Binary (thresholded black/white) value for pixel (x,y)   
+ * Returns the narrowest and widest bullseye rings (in pixels) that the
+ * next scan will accept as candidates, as {min, max}.
  */
-   protected int getBW(int x, int y) {
-      int pixel = data[y * w + x];
-      return (pixel >> 24) & 0x01;
+   public int [] getCandidateRunRange() {
+      calibrateBounds();
+      return new int[] { minrun, maxu };
    }
 
    
 /**
- * Average of thresholded pixels in a 3x3 region around (x,y).
- * Returned value is between 0 (black) and 255 (white).   
+ * Selects the algorithm used to convert images to black and white.
+ * THRESHOLD_WELLNER (the default) uses a running average along each
+ * row.  THRESHOLD_INTEGRAL compares each pixel to the mean of a square
+ * window around it using a summed-area table.  The integral threshold
+ * copes better with uneven lighting and its rows can be processed in
+ * any order (so they are split across threads by parallel scans),
+ * but it needs an int per pixel for the table.
  */
-   protected int getSample3x3(int x, int y) {
-      if (x < 1 || x > w-2 || y < 1 || y >= h-2) return 0;
-      int pixel, sum = 0;
-      
-      for (int j=y-1; j<=y+1; j++) {
-         for (int i=x-1; i<=x+1; i++) {
-            pixel = data[j * w + i];
-            if ((pixel & 0x01000000) > 0) {
-               sum += 0xff;
-            }
-         }
+   public void setThresholdMode(int mode) {
+      this.tmode = mode;
+      if (mode != THRESHOLD_INTEGRAL && !scaled) {
+         this.integral = null;
       }
-      //return (sum >= 5) ? 1 : 0;
-      return (sum / 9);
    }
 
-   
+
 /**
- * Average of thresholded pixels in a 3x3 region around (x,y).
- * Returned value is either 0 (black) or 1 (white).
+ * Returns the current thresholding algorithm.
  */
-   protected int getBW3x3(int x, int y) { 
-      if (x < 1 || x > w-2 || y < 1 || y >= h-2) return 0;
-      int pixel, sum = 0;
-      
-      for (int j=y-1; j<=y+1; j++) {
-         for (int i=x-1; i<=x+1; i++) {
-            pixel = data[j * w + i];
-            sum += ((pixel >> 24) & 0x01);
-         }
+   public int getThresholdMode() {
+      return this.tmode;
+   }
+
+
+/**
+ * Turns on sampling of codes with windows scaled to their size.  After
+ * an image is thresholded, a summed-area table of the black and white
+ * image is built so that the average of any box of pixels takes four
+ * lookups.  TopCode.readCode then averages each sample over a window
+ * about a quarter of a ring wide (3x3 pixels for small codes, as
+ * before), which smooths over noise and print defects in large codes.
+ * The table needs an int per pixel (shared with the integral
+ * threshold).
+ */
+   public void setScaledSampling(boolean scaled) {
+      this.scaled = scaled;
+      if (!scaled && tmode != THRESHOLD_INTEGRAL) {
+         this.integral = null;
       }
-      return (sum >= 5) ? 1 : 0;
    }
 
+
 /**
- * Perform Wellner adaptive thresholding to produce binary pixel
- * data.  Also mark candidate spotcode locations.
- *
- * "Adaptive Thresholding for the DigitalDesk"   
- * EuroPARC Technical Report EPC-93-110
+ * Returns true if scaled sampling is turned on.
  */
-   protected void threshold() {
+   public boolean getScaledSampling() {
+      return this.scaled;
+   }
 
-      int pixel, r, g, b, a;
-      int threshold, sum = 128;
-      int s = 30;
-      int k;
-      int b1, w1, b2, level, dk;
 
-      this.ccount = 0;
+/**
+ * Turns on fixed-point decoding.  TopCode.readCode then steps the
+ * sample positions across each sector in 16.16 fixed point with integer
+ * adds instead of a float multiply and Math.round per sample, which is
+ * faster on devices without a hardware floating point unit.  Sample
+ * positions agree with the float path to well under a hundredth of a
+ * pixel, so the same codes are read.
+ */
+   public void setFixedPoint(boolean fixed) {
+      this.fixed = fixed;
+   }
 
-      for (int j=0; j<h; j++) {
-         level = b1 = b2 = w1 = 0;
 
-         //----------------------------------------
-         // Process rows back and forth (alternating
-         // left-to-right, right-to-left)
-         //----------------------------------------
-         k = (j % 2 == 0) ? 0 : w-1;
-         k += (j * w);
-         
-         for (int i=0; i<w; i++) { 
-
-            //----------------------------------------
-            // Calculate pixel intensity (0-255)
-            //----------------------------------------
-            pixel = data[k];
-            r = (pixel >> 16) & 0xff;
-            g = (pixel >> 8) & 0xff;
-            b = pixel & 0xff;
-            a = (r + g + b) / 3;
-            //a = r;
-            
-            //----------------------------------------
-            // Calculate sum as an approximate sum
-            // of the last s pixels
-            //----------------------------------------
-            sum += a - (sum / s);
-         
-            //----------------------------------------
-            // Factor in sum from the previous row
-            //----------------------------------------
-            if (k >= w) {
-               threshold = (sum + (data[k-w] & 0xffffff)) / (2*s);
-            } else {
-               threshold = sum / s;
-            }
-            
-            //----------------------------------------
-            // Compare the average sum to current pixel
-            // to decide black or white
-            //----------------------------------------
-            double f = 0.85;
-            f = 0.975;
-            a = (a < threshold * f)? 0 : 1;
-
-            //----------------------------------------
-            // Repack pixel data with binary data in 
-            // the alpha channel, and the running sum
-            // for this pixel in the RGB channels
-            //----------------------------------------
-            data[k] = (a << 24) + (sum & 0xffffff);
-
-            switch (level) {
-               
-            // On a white region. No black pixels yet
-            case 0:
-               if (a == 0) {  // First black encountered
-                  level = 1;
-                  b1 = 1;
-                  w1 = 0;
-                  b2 = 0;
-               }
-               break;
-
-            // On first black region
-            case 1:
-               if (a == 0) {
-                  b1++;
-               } else {
-                  level = 2;
-                  w1 = 1;
-               }
-               break;
-
-            // On second white region (bulls-eye of a code?)
-            case 2:
-               if (a == 0) {
-                  level = 3;
-                  b2 = 1;
-               } else {
-                  w1++;
-               }
-               break;
-               
-            // On second black region
-            case 3:
-               if (a == 0) {
-                  b2++;
-               }
-               // This could be a top code
-               else {
-                  int mask;
-                  if (b1 >= 2 && b2 >= 2 &&  // less than 2 pixels... not interested
-                      b1 <= maxu && b2 <= maxu && w1 <= (maxu + maxu) &&
-                      Math.abs(b1 + b2 - w1) <= (b1 + b2) &&
-                      Math.abs(b1 + b2 - w1) <= w1 &&
-                      Math.abs(b1 - b2) <= b1 &&
-                      Math.abs(b1 - b2) <= b2) {
-                     mask = 0x2000000;
-
-                     dk = 1 + b2 + w1/2;
-                     if (j % 2 == 0) {
-                        dk = k - dk; 
-                     } else {
-                        dk = k + dk;
-                     }
-                     
-                     data[dk - 1] |= mask;
-                     data[dk] |= mask;
-                     data[dk + 1] |= mask;
-                     ccount += 3;  // count candidate codes
-                  }
-                  b1 = b2;
-                  w1 = 1;
-                  b2 = 0;
-                  level = 2;
-               }
-               break;
-            }
-            
-            
-            k += (j % 2 == 0) ? 1 : -1;
-         }
-      }
+/**
+ * Returns true if fixed-point decoding is turned on.
+ */
+   public boolean getFixedPoint() {
+      return this.fixed;
    }
-      
+
+
 /**
- * Scan the image line by line looking for TopCodes   
+ * Turns on run-length marking.  Each black and white row is first
+ * split into runs of the same color (found 32 pixels at a time from the
+ * bit plane), and the bullseye test is then applied to each group of
+ * black, white and black runs instead of advancing a state machine one
+ * pixel at a time.  Pages are mostly white, so rows have few runs and
+ * candidate marking costs far less.  The candidates marked are exactly
+ * the same.
  */
-   protected List<TopCode> findCodes() {
-      this.tcount = 0;
-      List<TopCode> spots = new java.util.ArrayList<TopCode>();
+   public void setRunLengthMarking(boolean rle) {
+      this.rle = rle;
+   }
 
-      TopCode spot = new TopCode();
-      int k = w * 2;
-      for (int j=2; j<h-2; j++) {
-         for (int i=0; i<w; i++) {
-            if ((data[k] & 0x2000000) > 0) {
-               if ((data[k-1] & 0x2000000) > 0 &&
-                   (data[k+1] & 0x2000000) > 0 &&
-                   (data[k-w] & 0x2000000) > 0 &&
-                   (data[k+w] & 0x2000000) > 0) {
-/*
-               if ((data[k-w] & 0x2000000) > 0 ||
-                   (data[k+w] & 0x2000000) > 0)) {
-*/                    
-                  if (!overlaps(spots, i, j)) {
-                     this.tcount++;
-                     spot.decode(this, i, j);
-                     if (spot.isValid()) {
-                        spots.add(spot);
-                        spot = new TopCode();
-                     }
-                  }
-               }
-            }
-            k++;
-         }
-      }
-      return spots;
+
+/**
+ * Returns true if run-length marking is turned on.
+ */
+   public boolean getRunLengthMarking() {
+      return this.rle;
    }
 
+
 /**
- * Returns true if point (x,y) is in an existing TopCode bullseye   
+ * Turns on the cross check.  Candidates are marked from black, white
+ * and black runs along rows only, so text, ruled lines and the edges of
+ * stickers mark candidates that then fail a full decode.  With the
+ * cross check on, the bit plane is read down the candidate's column and
+ * along both diagonals, and a candidate is only decoded if each of
+ * these lines also crosses a black ring, a white center and a black
+ * ring in bullseye proportions, and the column is about as wide as the
+ * row.  These lines are held to looser proportions than marking is,
+ * since blur thins the white center and can merge a ring with the data
+ * ring next to it.  This costs a few dozen pixel reads per candidate,
+ * against hundreds for a decode.  Rejected candidates are counted by
+ * getRejectedCount() and not by getTestedCount().  The check can still
+ * reject real codes: on pages of 36 to 48 pixel codes with a pixel of
+ * blur it dropped about 1 in 800 of the codes a plain scan finds, where
+ * both rings had merged along a diagonal.
  */
-   protected boolean overlaps(List<TopCode> spots, int x, int y) {
-      for (TopCode top : spots) {
-         if (top.inBullsEye(x, y)) return true;
-      }
-      return false;
+   public void setCrossCheck(boolean cross) {
+      this.cross = cross;
    }
-   
+
+
+/**
+ * Returns true if the cross check is turned on.
+ */
+   public boolean getCrossCheck() {
+      return this.cross;
+   }
+
+
+/**
+ * Turns on two-stage scanning for large images.  The image is first
+ * shrunk by the given factor (2 or 4 are sensible) and scanned for
+ * candidate bullseyes.  Each candidate is then thresholded and decoded
+ * in a small full-resolution window, so the full-size image is never
+ * thresholded or held in memory.  With a factor of 2, codes should be
+ * at least 36 pixels across in the full image (72 for a factor of 4),
+ * even with a pixel of blur; smaller ones may be missed.  Pass 1 (the
+ * default) to scan the whole image at full resolution.  Pre-scans
+ * always run on the calling thread.
+ */
+   public void setPrescale(int factor) {
+      this.prescale = Math.max(1, factor);
+   }
+
+
+/**
+ * Returns the pre-scan downsampling factor (1 if pre-scans are off).
+ */
+   public int getPrescale() {
+      return this.prescale;
+   }
+
+
+/**
+ * Turns on strip scanning for tall images.  The image is thresholded
+ * and decoded a strip of the given number of rows at a time, so the
+ * scanner's buffers only ever cover one strip (plus an overlap tall
+ * enough to hold the largest code, see getStripOverlap).  Codes that
+ * cross a strip edge are picked up whole by the next strip, and codes
+ * found twice in an overlap are only reported once.  Strip scans use
+ * worker threads within each strip, but not pre-scans.  Pass 0 (the
+ * default) to scan the whole image at once.
+ */
+   public void setStripHeight(int rows) {
+      this.strip = Math.max(0, rows);
+   }
+
+
+/**
+ * Returns the number of rows per strip (0 if strip scanning is off).
+ */
+   public int getStripHeight() {
+      return this.strip;
+   }
+
+
+/**
+ * Returns the number of rows that neighboring strips share.  This is
+ * the largest code diameter (see setMaxCodeDiameter) plus a margin, so
+ * lowering the maximum diameter makes strip scans cheaper.
+ */
+   public int getStripOverlap() {
+      return maxu * TopCode.WIDTH + 16;
+   }
+
+
+/**
+ * Selects how TopCode.decode() searches for the best reading of a
+ * candidate.  DECODE_EXHAUSTIVE (the default) tries all 50 unit and arc
+ * adjustments.  DECODE_COARSE tries a few arc adjustments first, stops
+ * if one of them is confident enough (see setDecodeConfidence), and
+ * otherwise refines around the best one.  Both modes report the code,
+ * orientation, diameter, and confidence of the reading they picked, so
+ * the two can be compared.
+ */
+   public void setDecodeMode(int mode) {
+      this.dmode = mode;
+   }
+
+
+/**
+ * Returns the current decode search strategy.
+ */
+   public int getDecodeMode() {
+      return this.dmode;
+   }
+
+
+/**
+ * Sets the confidence (between 0 and 1) at which a DECODE_COARSE
+ * search stops early.  Higher values search longer but are more likely
+ * to find the same reading as an exhaustive search.  The default is 0.9.
+ */
+   public void setDecodeConfidence(float confidence) {
+      this.dconf = confidence;
+   }
+
+
+/**
+ * Returns the confidence at which a DECODE_COARSE search stops early.
+ */
+   public float getDecodeConfidence() {
+      return this.dconf;
+   }
+
+
+/**
+ * Sets the number of worker threads used to scan an image.  A value of
+ * one (the default) scans on the calling thread.  Passing
+ * Runtime.getRuntime().availableProcessors() will use every core.
+ * Parallel scans return exactly the same codes as single-threaded scans.
+ * The worker threads are started by the first parallel scan and kept
+ * until the thread count changes or close() is called.
+ */
+   public void setThreadCount(int threads) {
+      threads = Math.max(1, threads);
+      if (threads != this.threads) {
+         close();
+      }
+      this.threads = threads;
+   }
+
+
+/**
+ * Stops the worker threads of a multi-threaded scanner.  Call this when
+ * a scanner with more than one thread is no longer needed, or its
+ * threads stay idle until the program exits.  The scanner can still be
+ * used afterwards; the next parallel scan starts new threads.
+ */
+   public void close() {
+      if (pool != null) {
+         pool.shutdown();
+         pool = null;
+      }
+   }
+
+
+/**
+ * Returns the number of worker threads used to scan an image.
+ */
+   public int getThreadCount() {
+      return this.threads;
+   }
+
+   
+/**
+ * Returns the number of candidate pixels marked during the last scan
+ */
+   public int getCandidateCount() {
+      return this.ccount;
+   }
+
+
+/**
+ * Returns the number of candidates decoded during the last scan
+ */
+   public int getTestedCount() {
+      return this.tcount;
+   }
+
+
+/**
+ * Returns the number of candidates that passed the neighbor test
+ * during the last scan but were skipped because they fell inside the
+ * bullseye of a code found already.
+ */
+   public int getOverlapCount() {
+      return this.ocount;
+   }
+
+
+/**
+ * Returns the number of candidates that were rejected by the cross
+ * check during the last scan without being decoded (zero unless the
+ * cross check is turned on).
+ */
+   public int getRejectedCount() {
+      return this.rcount;
+   }
+
+
+/**
+ * Returns the number of clusters of touching candidates found during
+ * the last scan (zero unless clustering is turned on).
+ */
+   public int getClusterCount() {
+      return this.bcount;
+   }
+
+
+/**
+ * Turns on clustering of candidates.  Most bullseyes mark a small blob
+ * of touching candidate pixels, and without clustering each of them is
+ * decoded until one succeeds.  With clustering, touching candidates are
+ * merged into clusters and each cluster is decoded from its center; if
+ * that fails, its other pixels are tried outwards from the center until
+ * one decodes.  These other pixels are cross checked first (see
+ * setCrossCheck) even when the check is off, so that a blob of text or
+ * ruled lines costs one decode rather than one per pixel.
+ * getTestedCount() then counts decode attempts, so comparing it with
+ * the number of codes found shows how many decodes each code costs.
+ * Codes are found in raster order of their clusters' first pixels, and
+ * their centers may differ from a scan without clustering by a pixel.
+ */
+   public void setClustering(boolean cluster) {
+      this.cluster = cluster;
+      this.bcount  = 0;
+   }
+
+
+/**
+ * Returns true if clustering of candidates is turned on.
+ */
+   public boolean getClustering() {
+      return this.cluster;
+   }
+
+
+/**
+ * Binary (thresholded black/white) value for pixel (x,y)   
+ */
+   protected int getBW(int x, int y) {
+      return (bits[y * span + (x >> 5)] >>> (x & 31)) & 0x01;
+   }
+
+
+/**
+ * Number of white pixels in the three pixel run starting at (x,y)
+ */
+   protected int getRun3(int x, int y) {
+      int k = y * span + (x >> 5);
+      int b = x & 31;
+      int run = bits[k] >>> b;
+      if (b > 29) {
+         run |= bits[k + 1] << (32 - b);
+      }
+      return Integer.bitCount(run & 0x07);
+   }
+
+
+/**
+ * Returns true if pixel (x,y) is marked as a candidate bullseye center
+ */
+   protected boolean isCandidate(int x, int y) {
+      return ((marks[y * span + (x >> 5)] >>> (x & 31)) & 0x01) > 0;
+   }
+
+   
+/**
+ * Average of thresholded pixels in a 3x3 region around (x,y).
+ * Returned value is between 0 (black) and 255 (white).   
+ */
+   protected int getSample3x3(int x, int y) {
+      if (x < 1 || x > w-2 || y < 1 || y >= h-2) return 0;
+      int sum = (getRun3(x - 1, y - 1) +
+                 getRun3(x - 1, y) +
+                 getRun3(x - 1, y + 1));
+      //return (sum >= 5) ? 1 : 0;
+      return (sum * 0xff / 9);
+   }
+
+   
+/**
+ * Average of thresholded pixels in a square region reaching r pixels
+ * from (x,y) in each direction.  Returned value is in the range 0
+ * (black) to 255 (white).  Read from the summed-area table when scaled
+ * sampling is on; otherwise, or if r is 1 or less, this is the same as
+ * getSample3x3.
+ */
+   protected int getSample(int x, int y, int r) {
+      if (r <= 1 || !scaled) return getSample3x3(x, y);
+      if (x < r || x > w-1-r || y < r || y >= h-1-r) return 0;
+      int tw = w + 1;
+      int x0 = x - r;
+      int x1 = x + r + 1;
+      int y0 = (y - r) * tw;
+      int y1 = (y + r + 1) * tw;
+      int sum = (integral[y1 + x1] - integral[y1 + x0] -
+                 integral[y0 + x1] + integral[y0 + x0]);
+      int n = (r + r + 1) * (r + r + 1);
+      return (sum * 0xff / n);
+   }
+
+
+/**
+ * Average of thresholded pixels in a 3x3 region around (x,y).
+ * Returned value is either 0 (black) or 1 (white).
+ */
+   protected int getBW3x3(int x, int y) { 
+      if (x < 1 || x > w-2 || y < 1 || y >= h-2) return 0;
+      int sum = (getRun3(x - 1, y - 1) +
+                 getRun3(x - 1, y) +
+                 getRun3(x - 1, y + 1));
+      return (sum >= 5) ? 1 : 0;
+   }
+
+/**
+ * Perform Wellner adaptive thresholding to produce binary pixel
+ * data.  Also mark candidate spotcode locations.
+ *
+ * "Adaptive Thresholding for the DigitalDesk"   
+ * EuroPARC Technical Report EPC-93-110
+ */
+   protected void threshold() {
+      threshold(128);
+   }
+
+
+/**
+ * Same as threshold() but with the given starting value for Wellner's
+ * running sum.  A sum of 30 times the average intensity of the first
+ * row avoids a dark band along the top of small windows.
+ */
+   protected void threshold(int sum) {
+
+      this.ccount = 0;
+      cands.clear();
+      reserve();
+
+      if (tmode == THRESHOLD_INTEGRAL) {
+         integrate();
+      }
+
+      for (int j=0; j<h; j++) {
+         if (tmode == THRESHOLD_INTEGRAL) {
+            integralRow(j);
+         } else {
+            sum = thresholdRow(j, sum);
+         }
+         if (rle) {
+            if (edges == null || edges.length < w + 1) this.edges = new int[w + 1];
+            this.ccount += markRuns(j, edges);
+         } else {
+            this.ccount += markRow(j);
+         }
+         listCandidates(j - 1, cands);
+      }
+
+      if (scaled) {
+         integrateBW();
+      }
+   }
+
+
+/**
+ * Thresholds a single row of the image.  The running sum is carried
+ * from one row to the next, and each pixel's sum is saved for the row
+ * below, so rows must be processed in order.  Returns the running sum
+ * at the end of the row.
+ */
+   protected int thresholdRow(int j, int sum) {
+
+      int a, x, dx;
+      int threshold;
+      int s = 30;
+      int row = j * span;
+
+      loadRow(j, line);
+      Arrays.fill(bits, row, row + span, 0);
+
+      //----------------------------------------
+      // Process rows back and forth (alternating
+      // left-to-right, right-to-left)
+      //----------------------------------------
+      x  = (j % 2 == 0) ? 0 : w-1;
+      dx = (j % 2 == 0) ? 1 : -1;
+         
+      for (int i=0; i<w; i++) { 
+
+         //----------------------------------------
+         // Pixel intensity (0-255)
+         //----------------------------------------
+         a = line[x];
+            
+         //----------------------------------------
+         // Calculate sum as an approximate sum
+         // of the last s pixels
+         //----------------------------------------
+         sum += a - (sum / s);
+         
+         //----------------------------------------
+         // Factor in sum from the previous row
+         //----------------------------------------
+         if (j > 0) {
+            threshold = (sum + sums[x]) / (2*s);
+         } else {
+            threshold = sum / s;
+         }
+         sums[x] = sum;
+            
+         //----------------------------------------
+         // Compare the average sum to current pixel
+         // to decide black or white
+         //----------------------------------------
+         double f = 0.85;
+         f = 0.975;
+         if (a >= threshold * f) {
+            bits[row + (x >> 5)] |= (1 << (x & 31));
+         }
+            
+         x += dx;
+      }
+      return sum;
+   }
+
+
+/**
+ * Builds a summed-area table of pixel intensities.  Entry (x, y) of the
+ * table (with a row width of w + 1) holds the sum of all pixels above and
+ * to the left of pixel (x, y).  Large images overflow an int, but
+ * because box sums are differences of table entries the wrapped values
+ * still give the right answer.
+ *
+ * "Adaptive Thresholding Using the Integral Image"
+ * Bradley and Roth, Journal of Graphics Tools 12(2), 2007
+ */
+   protected void integrate() {
+      int tw = w + 1;
+      if (integral == null || integral.length < tw * (h + 1)) {
+         this.integral = new int[tw * (h + 1)];
+      }
+      for (int i=0; i<tw; i++) {
+         integral[i] = 0;
+      }
+      
+      for (int j=0; j<h; j++) {
+         int row = 0;
+         int t = (j + 1) * tw;
+         loadRow(j, line);
+         integral[t] = 0;
+         for (int i=1; i<=w; i++) {
+            row += line[i - 1];
+            integral[t + i] = integral[t + i - tw] + row;
+         }
+      }
+   }
+
+
+/**
+ * Builds a summed-area table of the black and white image (1 for each
+ * white pixel) for scaled sampling.  This replaces the table of
+ * intensities, so it must run after the image has been thresholded.
+ */
+   protected void integrateBW() {
+      int tw = w + 1;
+      if (integral == null || integral.length < tw * (h + 1)) {
+         this.integral = new int[tw * (h + 1)];
+      }
+      for (int i=0; i<tw; i++) {
+         integral[i] = 0;
+      }
+
+      for (int j=0; j<h; j++) {
+         int row = 0;
+         int t = (j + 1) * tw;
+         int k = j * span;
+         integral[t] = 0;
+         for (int i=1; i<=w; i++) {
+            row += (bits[k + ((i - 1) >> 5)] >>> ((i - 1) & 31)) & 0x01;
+            integral[t + i] = integral[t + i - tw] + row;
+         }
+      }
+   }
+
+
+/**
+ * Thresholds row j using the integral image.  Each pixel is compared
+ * to the average intensity of a square window (1/INTEGRAL_S of the
+ * full image size across) centered on it.  The pixel's own intensity is
+ * also read back from the table, so rows are independent of one
+ * another and of the source image.
+ */
+   protected void integralRow(int j) {
+      int tw = w + 1;
+      int r = radius;
+      int top = Math.max(0, j - r) * tw;
+      int bottom = Math.min(h, j + r + 1) * tw;
+      int rows = (bottom - top) / tw;
+      int x0, x1, sum, count, a;
+      int p = j * tw;
+      int row = j * span;
+
+      Arrays.fill(bits, row, row + span, 0);
+
+      for (int i=0; i<w; i++) {
+         x0 = Math.max(0, i - r);
+         x1 = Math.min(w, i + r + 1);
+         sum = (integral[bottom + x1] - integral[bottom + x0] -
+                integral[top + x1] + integral[top + x0]);
+         count = (x1 - x0) * rows;
+         a = (integral[p + tw + i + 1] - integral[p + tw + i] -
+              integral[p + i + 1] + integral[p + i]);
+         
+         if ((long)a * count * 100 >= (long)sum * (100 - INTEGRAL_T)) {
+            bits[row + (i >> 5)] |= (1 << (i & 31));
+         }
+      }
+   }
+
+
+/**
+ * Looks for bullseye patterns in a thresholded row and marks the
+ * center of each with the candidate flag.  Rows are walked in the same
+ * direction that they were thresholded.  Marking only reads and
+ * writes pixels in row j, so bands of rows can be marked in parallel.
+ * Returns the number of pixels marked.
+ */
+   protected int markRow(int j) {
+      int a, k, dk;
+      int b1, w1, b2, level;
+      int count = 0;
+      int row = j * span;
+
+      level = b1 = b2 = w1 = 0;
+      k = (j % 2 == 0) ? 0 : w-1;
+      Arrays.fill(marks, row, row + span, 0);
+
+      for (int i=0; i<w; i++) {
+
+         a = (bits[row + (k >> 5)] >>> (k & 31)) & 0x01;
+
+         switch (level) {
+               
+         // On a white region. No black pixels yet
+         case 0:
+            if (a == 0) {  // First black encountered
+               level = 1;
+               b1 = 1;
+               w1 = 0;
+               b2 = 0;
+            }
+            break;
+
+         // On first black region
+         case 1:
+            if (a == 0) {
+               b1++;
+            } else {
+               level = 2;
+               w1 = 1;
+            }
+            break;
+
+         // On second white region (bulls-eye of a code?)
+         case 2:
+            if (a == 0) {
+               level = 3;
+               b2 = 1;
+            } else {
+               w1++;
+            }
+            break;
+               
+         // On second black region
+         case 3:
+            if (a == 0) {
+               b2++;
+            }
+            // This could be a top code
+            else {
+               if (isBullseye(b1, w1, b2)) {
+                  dk = 1 + b2 + w1/2;
+                  if (j % 2 == 0) {
+                     dk = k - dk; 
+                  } else {
+                     dk = k + dk;
+                  }
+                     
+                  mark(row, dk - 1);
+                  mark(row, dk);
+                  mark(row, dk + 1);
+                  count += 3;  // count candidate codes
+               }
+               b1 = b2;
+               w1 = 1;
+               b2 = 0;
+               level = 2;
+            }
+            break;
+         }
+            
+         k += (j % 2 == 0) ? 1 : -1;
+      }
+      return count;
+   }
+
+
+/**
+ * Same as markRow(), but over the runs of the row.  The row is split
+ * into runs of the same color by finding the color changes 32 pixels
+ * at a time; edges[r] is the first pixel of run r and edges[n] = w.
+ * markRow() tests each black, white, black group of runs when it
+ * reaches the white run that follows it, so every such group that
+ * isn't at the far end of the row is tested here with the position
+ * that markRow() would have reached.  Even rows are scanned left to
+ * right and odd rows right to left, as in markRow().  edges needs room
+ * for w + 1 entries.
+ */
+   protected int markRuns(int j, int [] edges) {
+      int row = j * span;
+      int count = 0;
+      Arrays.fill(marks, row, row + span, 0);
+
+      int n = 1;
+      int prev = bits[row] & 0x01;
+      int tail = w & 31;
+      edges[0] = 0;
+      for (int i=0; i<span; i++) {
+         int word = bits[row + i];
+         int t = word ^ ((word << 1) | prev);
+         prev = word >>> 31;
+         if (i == span - 1 && tail != 0) {
+            t &= (1 << tail) - 1;
+         }
+         while (t != 0) {
+            edges[n++] = (i << 5) + Integer.numberOfTrailingZeros(t);
+            t &= (t - 1);
+         }
+      }
+      edges[n] = w;
+
+      // runs alternate in color, so run r is black if (r & 1) is the
+      // color of the first pixel
+      int first = bits[row] & 0x01;
+      boolean even = (j % 2 == 0);
+      for (int r = (first == 0) ? 2 : 1; r + 1 < n; r += 2) {
+         int dk;
+         if (even) {
+            if (r < 2) continue;
+            int b1 = edges[r - 1] - edges[r - 2];
+            int w1 = edges[r] - edges[r - 1];
+            int b2 = edges[r + 1] - edges[r];
+            if (!isBullseye(b1, w1, b2)) continue;
+            dk = edges[r + 1] - (1 + b2 + w1/2);
+         } else {
+            if (r + 2 >= n) continue;
+            int b1 = edges[r + 3] - edges[r + 2];
+            int w1 = edges[r + 2] - edges[r + 1];
+            int b2 = edges[r + 1] - edges[r];
+            if (!isBullseye(b1, w1, b2)) continue;
+            dk = edges[r] - 1 + (1 + b2 + w1/2);
+         }
+         mark(row, dk - 1);
+         mark(row, dk);
+         mark(row, dk + 1);
+         count += 3;
+      }
+      return count;
+   }
+
+
+/**
+ * Returns true if black, white and black runs of the given widths
+ * could be a line through the middle of a bullseye: both black rings
+ * no thinner than minrun or wider than maxu, and roughly as wide as
+ * each other and as half of the white center.
+ */
+   protected boolean isBullseye(int b1, int w1, int b2) {
+      return (b1 >= minrun && b2 >= minrun &&  // too thin... not interested
+              isBullseye(b1, w1, b2, maxu));
+   }
+
+
+/**
+ * Same as isBullseye(b1, w1, b2) but with no minimum width for the
+ * black rings, and at most limit pixels wide.
+ */
+   protected boolean isBullseye(int b1, int w1, int b2, int limit) {
+      return (b1 <= limit && b2 <= limit && w1 <= (limit + limit) &&
+              Math.abs(b1 + b2 - w1) <= (b1 + b2) &&
+              Math.abs(b1 + b2 - w1) <= w1 &&
+              Math.abs(b1 - b2) <= b1 &&
+              Math.abs(b1 - b2) <= b2);
+   }
+
+
+/**
+ * Checks candidate (x,y) across its bullseye (see setCrossCheck).  The
+ * row through it and its column (or a column next to it, in case of
+ * noise) must both cross a bullseye, with the column within a third of
+ * the row's width, and so must both diagonals.  Steps along a diagonal
+ * are longer than a pixel, so the rings there are not held to minrun.
+ */
+   protected boolean crossCheck(int x, int y) {
+      int across = crossing(x, y, 1, 0, minrun);
+      int down = crossing(x, y, 0, 1, minrun);
+      if (down < 0 && x > 0) down = crossing(x - 1, y, 0, 1, minrun);
+      if (down < 0 && x < w - 1) down = crossing(x + 1, y, 0, 1, minrun);
+      if (across < 0 || down < 0 || Math.abs(across - down) * 3 > across) {
+         return false;
+      }
+      return (crossing(x, y, 1, 1, 1) >= 0 && crossing(x, y, 1, -1, 1) >= 0);
+   }
+
+
+/**
+ * Reads the white run through (x,y) and the black runs on either side
+ * of it along direction (dx,dy).  Returns the number of pixels in the
+ * three runs, or -1 if they don't look like a line through a bullseye
+ * with rings at least min pixels wide (see isCrossing).
+ */
+   protected int crossing(int x, int y, int dx, int dy, int min) {
+      int wa = run(x + dx, y + dy, dx, dy, 1, maxu + maxu);
+      int wb = run(x - dx, y - dy, -dx, -dy, 1, maxu + maxu);
+      if (getBW(x, y) == 0 || wa < 0 || wb < 0) return -1;
+
+      int b1 = run(x - dx * (wb + 1), y - dy * (wb + 1), -dx, -dy, 0, maxu);
+      int b2 = run(x + dx * (wa + 1), y + dy * (wa + 1), dx, dy, 0, maxu);
+      int w1 = wa + wb + 1;
+
+      // on small blurred codes the white ring outside the bullseye can
+      // close up, so a black run that carries on into the data ring is
+      // cut down to the other run's width
+      int b = Math.min(b1, b2);
+      if (b1 > b + b) b1 = b;
+      if (b2 > b + b) b2 = b;
+      if (b1 < min || b2 < min || !isCrossing(b1, w1, b2)) return -1;
+      return b1 + w1 + b2;
+   }
+
+
+/**
+ * Same as isBullseye(b1, w1, b2, maxu), but the white center may be as
+ * thin as a third of the two black runs together, since blur eats into
+ * it from both sides.
+ */
+   protected boolean isCrossing(int b1, int w1, int b2) {
+      return (b1 <= maxu && b2 <= maxu && w1 <= (maxu + maxu) &&
+              Math.abs(b1 + b2 - w1) <= (b1 + b2) &&
+              Math.abs(b1 + b2 - w1) <= (w1 + w1) &&
+              Math.abs(b1 - b2) <= b1 &&
+              Math.abs(b1 - b2) <= b2);
+   }
+
+
+/**
+ * Counts the pixels of color bw (1 for white) from (x,y) onwards in
+ * direction (dx,dy), stopping at limit + 1.  A single pixel of the
+ * other color is taken for noise if the run carries on after it.
+ * Returns -1 if the run reaches the edge of the image.
+ */
+   protected int run(int x, int y, int dx, int dy, int bw, int limit) {
+      for (int n=0; n<=limit; n++) {
+         if (x < 0 || y < 0 || x >= w || y >= h) return -1;
+         if (getBW(x, y) != bw) {
+            int nx = x + dx;
+            int ny = y + dy;
+            if (n == 0 || nx < 0 || ny < 0 || nx >= w || ny >= h ||
+                getBW(nx, ny) != bw) {
+               return n;
+            }
+         }
+         x += dx;
+         y += dy;
+      }
+      return limit + 1;
+   }
+
+
+/**
+ * Sets the candidate flag for pixel x of the row starting at marks[row]
+ */
+   protected void mark(int row, int x) {
+      marks[row + (x >> 5)] |= (1 << (x & 31));
+   }
+
+
+/**
+ * Appends the candidates of row j (marked pixels whose four neighbors
+ * are also marked) to the list, 32 pixels at a time.  Rows j - 1 and
+ * j + 1 must already be marked, so this is called for the row above
+ * each row as it is marked, while the three rows are still in cache.
+ * Rows within 2 pixels of the top or bottom are never candidates.
+ */
+   protected void listCandidates(int j, CandidateList list) {
+      if (j < 2 || j >= h - 2) return;
+      int row = j * span;
+      for (int n=0; n<span; n++) {
+         int k = row + n;
+         int m = marks[k];
+         if (m == 0) continue;
+
+         // the neighbors to the left and right of the first and last
+         // pixels of a row are read from the rows' ends, as isCandidate does
+         m &= (m << 1) | (marks[k - 1] >>> 31);
+         m &= (m >>> 1) | (marks[k + 1] << 31);
+         m &= marks[k - span] & marks[k + span];
+         while (m != 0) {
+            list.add(j * w + (n << 5) + Integer.numberOfTrailingZeros(m));
+            m &= (m - 1);
+         }
+      }
+   }
+
+      
+/**
+ * Decodes the candidates listed by threshold() in raster order and
+ * replaces the contents of spots with the codes found.  Candidates
+ * inside a code that was already found are skipped, as are candidates
+ * that fail the cross check when it is turned on.
+ */
+   protected void findCodes(TopCodeList spots) {
+      findCodes(spots, false);
+   }
+
+
+/**
+ * Same as findCodes(spots), but if parallel is true the candidates are
+ * first decoded on the worker threads by decodeAhead().  The results
+ * are then merged in raster order: a candidate is skipped if it falls
+ * inside a code that was already merged, and candidates that a batch
+ * skipped are decoded if the code that hid them turned out to be a
+ * duplicate.  Decoding only reads the bit planes, which stay unchanged
+ * until the scan is over, so the codes found and the counts are
+ * exactly those of the single-threaded scan.
+ *
+ * With clustering turned on, each cluster's candidates are decoded
+ * in order of distance from its centroid until one succeeds.
+ */
+   protected void findCodes(TopCodeList spots, boolean parallel) {
+      this.tcount = 0;
+      this.ocount = 0;
+      this.rcount = 0;
+      spots.clear();
+      grid.reset(w, h);
+      if (cluster) {
+         findClusters();
+      }
+      if (parallel) {
+         decodeAhead();
+      }
+
+      for (int c=0; c<cands.size(); c++) {
+         if (!cluster) {
+            decodeCandidate(c, spots, parallel);
+         } else if (parent[c] == c) {
+            for (int m = center[c]; m >= 0; m = member[m]) {
+               if (decodeCandidate(m, spots, parallel)) break;
+            }
+         }
+      }
+   }
+
+
+/**
+ * Two-stage scan.  The image is shrunk into a luminance plane by
+ * averaging blocks of prescale x prescale pixels, and a second scanner
+ * finds candidate bullseyes in it.  Bullseye rings of a small code may
+ * only be a pixel wide after shrinking, so the pre-scan accepts
+ * single-pixel runs and marks with only one vertical neighbour, and it
+ * always uses the integral threshold (Wellner's running average smears
+ * thin rings, and blurred codes of the minimum size lose their
+ * bullseye).  For each candidate that isn't inside a code found
+ * already, a full-resolution window a bit larger than the code
+ * (estimated from its bullseye, or sized for a small code when the
+ * shrunk rings are too thin to measure) is thresholded and scanned.
+ * Codes that run off the edge of their window get a window of their
+ * own.  A window that decodes nothing only hides the candidates right
+ * next to it, so the rest of the bullseye's candidates are still tried.
+ */
+   protected void pyramidScan(TopCodeList spots) {
+      int f = prescale;
+      int fw = w;
+      int fh = h;
+      int sw = fw / f;
+      int sh = fh / f;
+      if (coarse == null) {
+         coarse  = new Scanner();
+         windows = new int[48];
+         cuts    = new int[12];
+         tally   = new int[3];
+      }
+      if (window == null) {
+         window  = new TopCodeList();
+         found   = new SpotGrid();
+      }
+      if (shrunk == null || shrunk.length < sw * sh) {
+         shrunk = new byte[sw * sh];
+      }
+      found.reset(fw, fh);
+
+      //-----------------------------------------
+      // 1. Shrink the image
+      //-----------------------------------------
+      byte [] small = shrunk;
+      int [] acc = sums;
+      for (int j=0; j<sh; j++) {
+         for (int i=0; i<sw; i++) acc[i] = 0;
+         for (int t=0; t<f; t++) {
+            loadRow(j * f + t, line);
+            for (int i=0, k=0; i<sw; i++) {
+               for (int n=0; n<f; n++) {
+                  acc[i] += line[k++];
+               }
+            }
+         }
+         for (int i=0; i<sw; i++) {
+            small[j * sw + i] = (byte)(acc[i] / (f * f));
+         }
+      }
+
+      //-----------------------------------------
+      // 2. Pre-scan for candidates
+      //-----------------------------------------
+      coarse.maxu = maxu / f + 1;
+      coarse.minrun = 1;
+      coarse.tmode = THRESHOLD_INTEGRAL;
+      coarse.rle = rle;
+      coarse.luma = small;
+      coarse.stride = sw;
+      coarse.setRegion(0, 0, sw, sh);
+      coarse.radius = Math.max(sw, sh) / (INTEGRAL_S * 2);
+      coarse.threshold();
+      tally[0] = 0;
+      tally[1] = 0;
+      tally[2] = 0;
+
+      //-----------------------------------------
+      // 3. Scan a full-resolution window around
+      //    each candidate
+      //-----------------------------------------
+      window.clear();
+      TopCode probe = window.next();   // spare entry, only used to read units
+      int count = 0;
+
+      for (int j=2; j<sh-2; j++) {
+         for (int n=0; n<coarse.span; n++) {
+            int word = coarse.marks[j * coarse.span + n];
+            while (word != 0) {
+               int i = (n << 5) + Integer.numberOfTrailingZeros(word);
+               word &= (word - 1);
+               if (!coarse.isCandidate(i, j - 1) && !coarse.isCandidate(i, j + 1)) {
+                  continue;
+               }
+
+               int cx = i * f + f / 2;
+               int cy = j * f + f / 2;
+               if (found.overlaps(cx, cy)) {
+                  tally[1]++;
+                  continue;
+               }
+
+               // skip candidates near the center of a window already scanned
+               boolean seen = false;
+               for (int k=0; k<count; k += 3) {
+                  int dx = windows[k] - cx;
+                  int dy = windows[k + 1] - cy;
+                  if (dx * dx + dy * dy <= windows[k + 2] * windows[k + 2]) {
+                     seen = true;
+                     break;
+                  }
+               }
+               if (seen) continue;
+
+               // window size from the bullseye's ring width (the rings
+               // of small or blurred codes may be too thin to read
+               // after shrinking, so guess a small code)
+               probe.setLocation(i, j);
+               float u = probe.readUnit(coarse);
+               if (u < 0) u = PRESCALE_UNIT;
+               int r = (int)(u * f * TopCode.WIDTH * 0.75f) + 8;
+               boolean hit = scanWindow(spots, cx, cy, r, fw, fh, true) > 0;
+
+               // a window that found nothing only hides the candidates
+               // next to this one, so the rest of the bullseye is tried
+               if (count == windows.length) {
+                  int [] b = new int[count * 2];
+                  System.arraycopy(windows, 0, b, 0, count);
+                  windows = b;
+               }
+               windows[count++] = cx;
+               windows[count++] = cy;
+               windows[count++] = hit ? r / 2 : f * 2;
+            }
+         }
+      }
+
+      //-----------------------------------------
+      // Report the full image size again (the
+      // bit planes still hold the last window)
+      //-----------------------------------------
+      coarse.luma = null;
+      this.ccount = coarse.ccount;
+      this.tcount = tally[0];
+      this.ocount = tally[1];
+      this.rcount = tally[2];
+      this.ox = 0;
+      this.oy = 0;
+      this.w = fw;
+      this.h = fh;
+   }
+
+
+/**
+ * Thresholds and scans a pre-scan window of radius r around (cx, cy) at
+ * full resolution (in an image fw x fh) and adds the codes found to
+ * spots.  Codes that run off the edge of the window may be misread, so
+ * they are left out; if retry is set, each of them is then scanned
+ * again in a window centered on it.  Returns the number of codes added.
+ */
+   protected int scanWindow(TopCodeList spots, int cx, int cy, int r,
+                            int fw, int fh, boolean retry) {
+      int x0 = Math.max(0, cx - r);
+      int y0 = Math.max(0, cy - r);
+      int x1 = Math.min(fw, cx + r);
+      int y1 = Math.min(fh, cy + r);
+      setRegion(x0, y0, x1 - x0, y1 - y0);
+      threshold(warmSum());
+      findCodes(window);
+      tally[0] += this.tcount;
+      tally[1] += this.ocount;
+      tally[2] += this.rcount;
+
+      int added = 0;
+      int n = 0;
+      for (int k=0; k<window.size(); k++) {
+         TopCode top = window.get(k);
+         float tx = top.getCenterX() + x0;
+         float ty = top.getCenterY() + y0;
+         float tr = top.getDiameter() * 0.5f + 2;
+         if ((tx - tr < x0 && x0 > 0) || (tx + tr > x1 && x1 < fw) ||
+             (ty - tr < y0 && y0 > 0) || (ty + tr > y1 && y1 < fh)) {
+            if (retry) {
+               if (n == cuts.length) {
+                  int [] b = new int[n * 2];
+                  System.arraycopy(cuts, 0, b, 0, n);
+                  cuts = b;
+               }
+               cuts[n++] = (int)tx;
+               cuts[n++] = (int)ty;
+               cuts[n++] = (int)(tr * 1.5f) + 8;
+            }
+            continue;
+         }
+         top.setLocation(tx, ty);
+         if (!found.overlaps((int)tx, (int)ty)) {
+            found.add(spots.append(top));
+            added++;
+         }
+      }
+
+      // retries clear the window list, so the codes cut off were
+      // copied out first
+      for (int k=0; k<n; k += 3) {
+         if (!found.overlaps(cuts[k], cuts[k + 1])) {
+            added += scanWindow(spots, cuts[k], cuts[k + 1], cuts[k + 2], fw, fh, false);
+         }
+      }
+      return added;
+   }
+
+
+/**
+ * Scans the image one strip at a time.  Each strip is extended
+ * downwards by getStripOverlap() rows, so any code that starts in a
+ * strip ends inside it.  Codes that run off the top or bottom of their
+ * strip (other than at the top or bottom of the image) are dropped,
+ * and the ones that remain are checked against the codes of earlier
+ * strips so that codes found twice in an overlap are only added once.
+ */
+   protected void stripScan(TopCodeList spots) {
+      int fw = w;
+      int fh = h;
+      int overlap = getStripOverlap();
+      int candidates = 0;
+      int tested = 0;
+      int skipped = 0;
+      int rejected = 0;
+      if (window == null) {
+         window  = new TopCodeList();
+         found   = new SpotGrid();
+      }
+      found.reset(fw, fh);
+
+      for (int y0 = 0; ; y0 += strip) {
+         int y1 = Math.min(fh, y0 + strip + overlap);
+         setRegion(0, y0, fw, y1 - y0);
+         if (threads > 1 && h >= MIN_BAND * 2) {
+            parallelScan(window, warmSum());
+         } else {
+            threshold(warmSum());
+            findCodes(window);
+         }
+         candidates += this.ccount;
+         tested += this.tcount;
+         skipped += this.ocount;
+         rejected += this.rcount;
+
+         for (int k=0; k<window.size(); k++) {
+            TopCode top = window.get(k);
+            float ty = top.getCenterY() + y0;
+            float tr = top.getDiameter() * 0.5f + 2;
+            if ((ty - tr < y0 && y0 > 0) || (ty + tr > y1 && y1 < fh)) {
+               continue;
+            }
+            top.setLocation(top.getCenterX(), ty);
+            if (!found.overlaps((int)top.getCenterX(), (int)ty)) {
+               found.add(spots.append(top));
+            }
+         }
+         if (y1 == fh) break;
+      }
+
+      this.ccount = candidates;
+      this.tcount = tested;
+      this.ocount = skipped;
+      this.rcount = rejected;
+      this.oy = 0;
+      this.h = fh;
+   }
+
+
+/**
+ * Returns a starting value for Wellner's running sum that is already
+ * settled on the first row of the current region.
+ */
+   protected int warmSum() {
+      int mean = 0;
+      loadRow(0, line);
+      for (int i=0; i<w; i++) {
+         mean += line[i];
+      }
+      return (w > 0) ? 30 * (mean / w) : 128;
+   }
+
+
+/**
+ * Multi-threaded version of threshold(sum) followed by findCodes().  The
+ * image is split into horizontal bands and scanned in three steps:
+ *
+ * 1. The Wellner threshold is run over the whole image.  The running
+ *    sum depends on every pixel before it, so this step is serial, but
+ *    it only does a few integer operations per pixel.  The integral
+ *    threshold only builds its summed-area table here.
+ * 2. Bands are marked for candidates in parallel (integral thresholds
+ *    are also applied to each band at this point).
+ * 3. The candidates of the bands are joined in raster order and decoded
+ *    by findCodes(spots, true), which spreads the decodes over the
+ *    worker threads.  This reproduces the single-threaded scan exactly.
+ */
+   protected void parallelScan(TopCodeList spots, int sum) {
+      int count = Math.min(threads * 4, h / MIN_BAND);
+      spots.clear();
+      reserve();
+      if (bands == null || bands.length != count || bands[count - 1].y1 != h) {
+         bands = new Band[count];
+         for (int i=0; i<count; i++) {
+            bands[i] = new Band(h * i / count, h * (i + 1) / count);
+         }
+      }
+
+      if (tmode == THRESHOLD_INTEGRAL) {
+         integrate();
+      } else {
+         for (int j=0; j<h; j++) {
+            sum = thresholdRow(j, sum);
+         }
+      }
+
+      runAll(bands);
+      this.ccount = 0;
+      for (Band band : bands) {
+         this.ccount += band.ccount;
+      }
+
+      if (scaled) {
+         integrateBW();
+      }
+
+      // candidates in the first and last rows of a band depend on the
+      // neighboring bands, so they are only listed now
+      cands.clear();
+      for (Band band : bands) {
+         listCandidates(band.y0, cands);
+         for (int n=0; n<band.inner.size(); n++) {
+            cands.add(band.inner.get(n));
+         }
+         if (band.y1 - 1 > band.y0) listCandidates(band.y1 - 1, cands);
+      }
+      findCodes(spots, true);
+   }
+
+
+/**
+ * Runs each job on the worker threads and waits for all of them to
+ * finish.
+ */
+   protected void runAll(Runnable [] jobs) {
+      if (pool == null) {
+         pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+               Thread t = new Thread(r, "TopCode Scanner");
+               t.setDaemon(true);
+               return t;
+            }
+         });
+      }
+      
+      List<Future<?>> running = new java.util.ArrayList<Future<?>>();
+      for (Runnable job : jobs) {
+         running.add(pool.submit(job));
+      }
+      try {
+         for (Future<?> job : running) {
+            job.get();
+         }
+      } catch (InterruptedException ix) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(ix);
+      } catch (ExecutionException ex) {
+         throw new RuntimeException(ex.getCause());
+      }
+   }
+
+
+/**
+ * A horizontal strip of the image (rows y0 through y1 - 1) that is
+ * marked for candidates by a single worker during a parallel scan.
+ */
+   protected class Band implements Runnable {
+
+      /** First row of the band */
+      int y0;
+
+      /** One past the last row of the band */
+      int y1;
+
+      /** Number of pixels marked as candidates */
+      int ccount;
+
+      /** Candidates in all but the first and last rows of the band */
+      CandidateList inner;
+
+      /** Run boundaries for run-length marking */
+      int [] edges;
+      
+
+      Band(int y0, int y1) {
+         this.y0     = y0;
+         this.y1     = y1;
+         this.ccount = 0;
+         this.inner  = new CandidateList();
+         this.edges  = null;
+      }
+
+
+      public void run() {
+         ccount = 0;
+         inner.clear();
+         for (int j=y0; j<y1; j++) {
+            if (tmode == THRESHOLD_INTEGRAL) {
+               integralRow(j);
+            }
+            if (rle) {
+               if (edges == null || edges.length < w + 1) edges = new int[w + 1];
+               ccount += markRuns(j, edges);
+            } else {
+               ccount += markRow(j);
+            }
+            if (j - 1 > y0) listCandidates(j - 1, inner);
+         }
+      }
+   }
+
+
+/**
+ * A run of consecutive candidates (c0 through c1 - 1) that a single
+ * worker decodes ahead of findCodes().  Each candidate (or cluster,
+ * starting from its first candidate) is tried just as findCodes()
+ * would, but a batch only knows about the codes found inside of it, so
+ * candidates inside one of those codes are left UNTESTED.  The results
+ * go to state and ahead, one entry per candidate, so batches never
+ * write to the same place.
+ */
+   protected class Batch implements Runnable {
+
+      /** First candidate of the batch */
+      int c0;
+
+      /** One past the last candidate of the batch */
+      int c1;
+
+      /** Codes found in this batch */
+      TopCodeList spots;
+
+      /** Codes found in this batch, indexed by position */
+      SpotGrid grid;
+
+
+      Batch() {
+         this.c0    = 0;
+         this.c1    = 0;
+         this.spots = new TopCodeList();
+         this.grid  = new SpotGrid();
+      }
+
+
+      public void run() {
+         spots.clear();
+         grid.reset(w, h);
+         for (int c=c0; c<c1; c++) {
+            if (!cluster) {
+               guess(c);
+            } else if (parent[c] == c) {
+               for (int m = center[c]; m >= 0; m = member[m]) {
+                  if (guess(m)) break;
+               }
+            }
+         }
+      }
+
+
+/**
+ * Tries candidate c unless it is inside a code already found in this
+ * batch, and records the result.  Returns true if the candidate was
+ * inside a code or decoded into one.
+ */
+      boolean guess(int c) {
+         if (grid.overlaps(cands.get(c) % w, cands.get(c) / w)) return true;
+         state[c] = attempt(c, spots, grid);
+         if (state[c] == DECODED) {
+            ahead[c] = spots.get(spots.size() - 1);
+         }
+         return (state[c] == DECODED);
+      }
+   }
+   
+
+/**
+ * Decodes every candidate (or every cluster) ahead of findCodes(),
+ * spread over the worker threads in batches of consecutive candidates.
+ */
+   protected void decodeAhead() {
+      int n = cands.size();
+      if (state == null || state.length < n) {
+         int len = Math.max(n, 64);
+         this.state = new int[len];
+         this.ahead = new TopCode[len];
+      }
+      java.util.Arrays.fill(state, 0, n, UNTESTED);
+
+      int count = Math.max(1, Math.min(threads * 4, n / MIN_BATCH));
+      if (batches == null || batches.length != count) {
+         batches = new Batch[count];
+         for (int i=0; i<count; i++) {
+            batches[i] = new Batch();
+         }
+      }
+      for (int i=0; i<count; i++) {
+         batches[i].c0 = n * i / count;
+         batches[i].c1 = n * (i + 1) / count;
+      }
+      runAll(batches);
+   }
+
+
+/**
+ * Merges touching candidates (including diagonally) into clusters with
+ * a union-find pass over the candidate list.  Afterwards parent holds
+ * the first candidate of each candidate's cluster, center holds the
+ * candidate of each cluster nearest its centroid, and member chains the
+ * candidates of each cluster from its center outwards (ties in raster
+ * order).
+ */
+   protected void findClusters() {
+      int n = cands.size();
+      if (parent == null || parent.length < n) {
+         int len = Math.max(n, 64);
+         this.parent = new int[len];
+         this.member = new int[len];
+         this.tail   = new int[len];
+         this.sumx   = new int[len];
+         this.sumy   = new int[len];
+         this.area   = new int[len];
+         this.center = new int[len];
+         this.order  = new long[len];
+      }
+
+      // join each candidate to the candidates left of it and above it
+      int above = 0;
+      for (int c=0; c<n; c++) {
+         int k = cands.get(c);
+         int x = k % w;
+         parent[c] = c;
+         if (c > 0 && cands.get(c - 1) == k - 1 && x > 0) {
+            join(c - 1, c);
+         }
+         while (cands.get(above) < k - w - 1) above++;
+         for (int a = above; cands.get(a) <= k - w + 1; a++) {
+            if (Math.abs(cands.get(a) % w - x) <= 1) join(a, c);
+         }
+      }
+
+      // sum up each cluster and chain its candidates in raster order
+      this.bcount = 0;
+      for (int c=0; c<n; c++) {
+         int r = root(c);
+         int k = cands.get(c);
+         parent[c] = r;
+         member[c] = -1;
+         if (r == c) {
+            sumx[c] = k % w;
+            sumy[c] = k / w;
+            area[c] = 1;
+            tail[c] = c;
+            this.bcount++;
+         } else {
+            sumx[r] += k % w;
+            sumy[r] += k / w;
+            area[r]++;
+            member[tail[r]] = c;
+            tail[r] = c;
+         }
+      }
+
+      // sort each cluster by distance from its centroid (candidate
+      // numbers in the low bits break ties in raster order) and chain
+      // it again in that order
+      for (int r=0; r<n; r++) {
+         if (parent[r] != r) continue;
+         int cx = (2 * sumx[r] + area[r]) / (2 * area[r]);
+         int cy = (2 * sumy[r] + area[r]) / (2 * area[r]);
+         int k = 0;
+         for (int c = r; c >= 0; c = member[c]) {
+            int dx = cands.get(c) % w - cx;
+            int dy = cands.get(c) / w - cy;
+            order[k++] = ((long)(dx * dx + dy * dy) << 32) | c;
+         }
+         Arrays.sort(order, 0, k);
+         center[r] = (int)order[0];
+         for (int m=0; m<k; m++) {
+            member[(int)order[m]] = (m + 1 < k) ? (int)order[m + 1] : -1;
+         }
+      }
+   }
+
+
+/**
+ * Decodes candidate c into the next entry of spots, unless it is
+ * inside a code that was already found.  A result from decodeAhead()
+ * is used if there is one.  Returns true if the candidate was inside
+ * a code or decoded into one.
+ */
+   protected boolean decodeCandidate(int c, TopCodeList spots, boolean parallel) {
+      int i = cands.get(c) % w;
+      int j = cands.get(c) / w;
+      if (grid.overlaps(i, j)) {
+         this.ocount++;
+         return true;
+      }
+      int result = parallel ? state[c] : UNTESTED;
+      if (result == DECODED) {
+         grid.add(spots.append(ahead[c]));
+      } else if (result == UNTESTED) {
+         result = attempt(c, spots, grid);
+      }
+      if (result == REJECTED) {
+         this.rcount++;
+         return false;
+      }
+      this.tcount++;
+      return (result == DECODED);
+   }
+
+
+/**
+ * Cross checks candidate c (if the check is turned on, or if c is a
+ * cluster pixel other than its center) and decodes it into the next
+ * entry of spots.  A valid code is committed to spots and
+ * added to found.  Returns DECODED, FAILED or REJECTED.
+ */
+   protected int attempt(int c, TopCodeList spots, SpotGrid found) {
+      int i = cands.get(c) % w;
+      int j = cands.get(c) / w;
+      boolean check = cross || (cluster && c != center[parent[c]]);
+      if (check && !crossCheck(i, j)) {
+         return REJECTED;
+      }
+      TopCode spot = spots.next();
+      spot.decode(this, i, j);
+      if (!spot.isValid()) {
+         return FAILED;
+      }
+      spots.commit();
+      found.add(spot);
+      return DECODED;
+   }
+
+
+/**
+ * Returns the first candidate of the cluster containing candidate c
+ */
+   protected int root(int c) {
+      while (parent[c] != c) {
+         parent[c] = parent[parent[c]];
+         c = parent[c];
+      }
+      return c;
+   }
+
+
+/**
+ * Merges the clusters of candidates a and b.  The merged cluster is
+ * named after whichever of the two comes first in raster order.
+ */
+   protected void join(int a, int b) {
+      a = root(a);
+      b = root(b);
+      if (a < b) {
+         parent[b] = a;
+      } else if (b < a) {
+         parent[a] = b;
+      }
+   }
+
+
 /**
  * Counts the number of vertical pixels from (x,y) until a color
  * change is perceived. 
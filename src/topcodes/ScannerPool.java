@@ -0,0 +1,237 @@
+/*
+ * @(#) ScannerPool.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes;
+
+import java.util.List;
+
+
+/**
+ * A fixed number of scanners shared by the threads of a server or batch
+ * job.  A Scanner keeps its bit planes (and the integral table, about
+ * 32 MB for an 8 megapixel image) between scans, but it can only scan
+ * one image at a time.  Threads borrow a scanner for each image with
+ * withScanner() and give it back when the scan is done, so the buffers
+ * are reused instead of allocated for every request:
+ *
+ *   List<TopCode> codes = pool.withScanner(w, h, new ScannerPool.Task<List<TopCode>>() {
+ *      public List<TopCode> run(Scanner scanner) {
+ *         return scanner.scan(luma, w, h, w);
+ *      }
+ *   });
+ *
+ * Idle scanners are handed out by size class (image size rounded up to
+ * a power of two pixels): a request gets the smallest idle scanner that
+ * was last lent out for an image at least as large, so small images
+ * don't tie up the scanners that have already grown for large ones.  A
+ * new scanner is only created when none is big enough and the pool
+ * isn't full; otherwise the largest idle scanner is lent out for the
+ * larger class.  The pool only records the size class; nothing is
+ * allocated up front, and the scanner's buffers grow on its next scan.
+ *
+ * Threads wait when every scanner is busy.  A thread that already holds
+ * a scanner (a task that calls withScanner() again) never waits, since
+ * the scanner it would wait for may be its own: if no scanner is idle
+ * and the pool is full, the nested call throws IllegalStateException
+ * instead of deadlocking.
+ *
+ * @author agent
+ */
+public class ScannerPool {
+
+   /**
+    * Work done with a borrowed scanner.
+    */
+   public static interface Task<T> {
+
+      /**
+       * Runs with a scanner that no other thread is using.  The scanner
+       * goes back to the pool when this returns, so it must not be kept
+       * (the codes returned by its scan() may be).
+       */
+      public T run(Scanner scanner);
+   }
+
+
+   /**
+    * A scanner together with the size class of the largest image it
+    * has been lent out for.
+    */
+   protected static class Slot {
+
+      /** The pooled scanner */
+      Scanner scanner;
+
+      /** Largest size class it has been lent out for */
+      int size;
+
+      Slot(Scanner scanner) {
+         this.scanner = scanner;
+         this.size    = 0;
+      }
+   }
+
+
+   /** Maximum number of scanners */
+   protected int capacity;
+
+   /** Number of scanners created so far */
+   protected int created;
+
+   /** Scanners that aren't lent out */
+   protected List<Slot> idle;
+
+   /** Number of requests that created or grew a scanner */
+   protected int misses;
+
+   /** Number of scanners each thread is holding */
+   protected ThreadLocal<int[]> held;
+
+
+/**
+ * Creates a pool of at most size scanners.  Scanners are created as
+ * they are first needed.
+ */
+   public ScannerPool(int size) {
+      this.capacity = Math.max(1, size);
+      this.created  = 0;
+      this.idle     = new java.util.ArrayList<Slot>();
+      this.misses   = 0;
+      this.held     = new ThreadLocal<int[]>() {
+         protected int[] initialValue() {
+            return new int[1];
+         }
+      };
+   }
+
+
+/**
+ * Returns the maximum number of scanners in the pool
+ */
+   public int getSize() {
+      return this.capacity;
+   }
+
+
+/**
+ * Returns the number of requests so far that had to create a scanner
+ * or grow one to a larger size class.  Once the pool is warm, this
+ * stays put.
+ */
+   public synchronized int getMissCount() {
+      return this.misses;
+   }
+
+
+/**
+ * Creates a scanner for the pool.  Override to change the scanner's
+ * settings.  Pooled scanners already run in parallel, so each one
+ * should normally use a single thread.
+ */
+   protected Scanner newScanner() {
+      return new Scanner();
+   }
+
+
+/**
+ * Borrows a scanner for an image of the given size, runs the task with
+ * it and returns the task's result.  The scanner goes back to the pool
+ * even if the task throws.  Waits while every scanner is busy, unless
+ * this thread already holds one (see the class comment).
+ */
+   public <T> T withScanner(int width, int height, Task<T> task) {
+      int [] depth = held.get();
+      Slot slot = acquire(sizeClass(width, height), depth[0] > 0);
+      depth[0]++;
+      try {
+         return task.run(slot.scanner);
+      } finally {
+         depth[0]--;
+         release(slot);
+      }
+   }
+
+
+/**
+ * Returns the size class of an image: the number of bits needed for
+ * its pixel count, so every class is twice as large as the one below.
+ */
+   protected static int sizeClass(int width, int height) {
+      long pixels = (long)Math.max(1, width) * Math.max(1, height);
+      return 64 - Long.numberOfLeadingZeros(pixels - 1);
+   }
+
+
+/**
+ * Takes the best idle scanner for an image of the given size class out
+ * of the pool, creating one if needed.  If none is left and nested is
+ * set (the calling thread already holds a scanner), throws
+ * IllegalStateException rather than waiting.
+ */
+   protected synchronized Slot acquire(int size, boolean nested) {
+      while (true) {
+         Slot fit = null;
+         Slot grow = null;
+         for (Slot slot : idle) {
+            if (slot.size >= size) {
+               if (fit == null || slot.size < fit.size) fit = slot;
+            } else if (grow == null || slot.size > grow.size) {
+               grow = slot;
+            }
+         }
+
+         if (fit == null && created < capacity) {
+            this.created++;
+            this.misses++;
+            fit = new Slot(newScanner());
+            fit.size = size;
+            return fit;
+         }
+         if (fit == null && grow != null) {
+            this.misses++;
+            grow.size = size;
+            fit = grow;
+         }
+         if (fit != null) {
+            idle.remove(fit);
+            return fit;
+         }
+         if (nested) {
+            throw new IllegalStateException(
+               "withScanner() nested on a full pool of " + capacity);
+         }
+
+         try {
+            wait();
+         } catch (InterruptedException ix) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ix);
+         }
+      }
+   }
+
+
+/**
+ * Puts a scanner back into the pool
+ */
+   protected synchronized void release(Slot slot) {
+      idle.add(slot);
+      notifyAll();
+   }
+}
@@ -0,0 +1,611 @@
+package topcodes;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+
+
+public class ScannerTest extends TestCase {
+
+   /** Width of the test pages */
+   protected static int W = 1024;
+
+   /** Height of the test pages */
+   protected static int H = 768;
+
+
+/**
+ * Returns a clean page with n random codes, 40 to 100 pixels across
+ */
+   protected PageRenderer page(long seed, int n) {
+      PageRenderer page = new PageRenderer(W, H, seed);
+      page.addRandomCodes(n, 40, 100);
+      return page;
+   }
+
+
+/**
+ * Counts the codes of the ground truth that were found at (nearly) the
+ * right place with the right code and orientation.
+ */
+   protected int matches(List<TopCode> truth, List<TopCode> found) {
+      int count = 0;
+      for (TopCode t : truth) {
+         for (TopCode c : found) {
+            float dx = c.getCenterX() - t.getCenterX();
+            float dy = c.getCenterY() - t.getCenterY();
+            double da = Math.abs(c.getOrientation() - t.getOrientation()) % (2 * Math.PI);
+            da = Math.min(da, 2 * Math.PI - da);
+            if (dx * dx + dy * dy < 4 && c.getCode() == t.getCode() && da < 0.25) {
+               count++;
+               break;
+            }
+         }
+      }
+      return count;
+   }
+
+
+/**
+ * Checks that two scans found the same codes at exactly the same
+ * places, in the same order.
+ */
+   protected void assertSameCodes(List<TopCode> a, List<TopCode> b) {
+      assertEquals(a.size(), b.size());
+      for (int i=0; i<a.size(); i++) {
+         assertEquals(a.get(i).getCode(), b.get(i).getCode());
+         assertEquals(a.get(i).getCenterX(), b.get(i).getCenterX(), 0);
+         assertEquals(a.get(i).getCenterY(), b.get(i).getCenterY(), 0);
+      }
+   }
+
+
+   public void testRendererIsReproducible() throws Exception {
+      PageRenderer a = page(3, 20);
+      PageRenderer b = page(3, 20);
+      a.setNoise(8);
+      b.setNoise(8);
+      assertEquals(20, a.getCodes().size());
+      assertTrue(java.util.Arrays.equals(a.renderLuma(), b.renderLuma()));
+   }
+
+
+   public void testRenderingAgainGivesSamePage() throws Exception {
+      PageRenderer a = new PageRenderer(W, H, 13);
+      PageRenderer b = new PageRenderer(W, H, 13);
+      a.setNoise(8);
+      b.setNoise(8);
+      a.addRandomCodes(10, 40, 100);
+      b.addRandomCodes(10, 40, 100);
+      byte [] luma = a.renderLuma();
+      assertTrue(java.util.Arrays.equals(luma, a.renderLuma()));
+      int [] argb = a.renderARGB();
+      for (int i=0; i<luma.length; i++) {
+         assertEquals(luma[i] & 0xff, argb[i] & 0xff);
+      }
+      a.addRandomCodes(10, 40, 100);
+      b.addRandomCodes(10, 40, 100);
+      assertTrue(java.util.Arrays.equals(a.renderLuma(), b.renderLuma()));
+   }
+
+
+   public void testCleanPage() throws Exception {
+      PageRenderer page = page(1, 30);
+      List<TopCode> found = new Scanner().scan(page.renderLuma(), W, H, W);
+      assertEquals(page.getCodes().size(), found.size());
+      assertEquals(page.getCodes().size(), matches(page.getCodes(), found));
+   }
+
+
+   public void testBlurNoiseAndLighting() throws Exception {
+      PageRenderer page = page(2, 30);
+      page.setBlur(1);
+      page.setNoise(6);
+      page.setLighting(0.5f, 0.7f);
+      Scanner scanner = new Scanner();
+      scanner.setThresholdMode(Scanner.THRESHOLD_INTEGRAL);
+      List<TopCode> found = scanner.scan(page.renderLuma(), W, H, W);
+      assertTrue(matches(page.getCodes(), found) >= page.getCodes().size() - 2);
+      assertEquals(found.size(), matches(page.getCodes(), found));
+   }
+
+
+   public void testParallelScanMatchesSerial() throws Exception {
+      byte [] luma = page(4, 40).renderLuma();
+      Scanner scanner = new Scanner();
+      List<TopCode> serial = scanner.scan(luma, W, H, W);
+      int tested = scanner.getTestedCount();
+      int skipped = scanner.getOverlapCount();
+      scanner.setThreadCount(4);
+      assertSameCodes(serial, scanner.scan(luma, W, H, W));
+      assertEquals(tested, scanner.getTestedCount());
+      assertEquals(skipped, scanner.getOverlapCount());
+      scanner.close();
+   }
+
+
+   public void testScaledSamplingReadsSameCodes() throws Exception {
+      PageRenderer page = new PageRenderer(W, H, 23);
+      page.addRandomCodes(12, 120, 200);
+      page.setNoise(8);
+      byte [] luma = page.renderLuma();
+      Scanner scanner = new Scanner();
+      List<TopCode> plain = scanner.scan(luma, W, H, W);
+      assertEquals(page.getCodes().size(), matches(page.getCodes(), plain));
+      scanner.setScaledSampling(true);
+      List<TopCode> scaled = scanner.scan(luma, W, H, W);
+      assertEquals(plain.size(), scaled.size());
+      assertEquals(plain.size(), matches(plain, scaled));
+
+      // small windows fall back to 3x3 samples, larger ones average
+      // the same pixels as the bit plane
+      for (int y=10; y<H-10; y += 7) {
+         for (int x=10; x<W-10; x += 5) {
+            assertEquals(scanner.getSample3x3(x, y), scanner.getSample(x, y, 1));
+            assertEquals(scanner.getSample3x3(x, y), scanner.getSample(x, y, 0));
+            int sum = 0;
+            for (int j=y-3; j<=y+3; j++) {
+               for (int i=x-3; i<=x+3; i++) sum += scanner.getBW(i, j);
+            }
+            assertEquals(sum * 0xff / 49, scanner.getSample(x, y, 3));
+         }
+      }
+
+      scanner.setThreadCount(3);
+      assertSameCodes(scaled, scanner.scan(luma, W, H, W));
+      scanner.close();
+   }
+
+
+   public void testStripScanFindsEveryCode() throws Exception {
+      PageRenderer page = page(5, 40);
+      byte [] luma = page.renderLuma();
+      Scanner scanner = new Scanner();
+      scanner.setMaxCodeDiameter(100);
+      scanner.setStripHeight(128);
+      List<TopCode> found = scanner.scan(luma, W, H, W);
+      assertEquals(page.getCodes().size(), found.size());
+      assertEquals(page.getCodes().size(), matches(page.getCodes(), found));
+   }
+
+
+   public void testCoarseDecodeFindsSameCodes() throws Exception {
+      for (int seed=20; seed<22; seed++) {
+         PageRenderer page = page(seed, 30);
+         page.setBlur(seed - 20);
+         page.setNoise(6);
+         byte [] luma = page.renderLuma();
+         Scanner scanner = new Scanner();
+         List<TopCode> exhaustive = scanner.scan(luma, W, H, W);
+         scanner.setDecodeMode(Scanner.DECODE_COARSE);
+         List<TopCode> coarse = scanner.scan(luma, W, H, W);
+         assertEquals(exhaustive.size(), coarse.size());
+         assertEquals(exhaustive.size(), matches(exhaustive, coarse));
+         for (int i=0; i<coarse.size(); i++) {
+            assertTrue(exhaustive.get(i).getConfidence() > 0);
+            assertTrue(coarse.get(i).getConfidence() > 0);
+            assertTrue(coarse.get(i).getConfidence() <= 1);
+         }
+      }
+   }
+
+
+   public void testPrescaleFindsCodesOfMinimumSize() throws Exception {
+      int [] factors = { 2, 4 };
+      for (int f : factors) {
+         for (int seed=0; seed<8; seed++) {
+            PageRenderer page = new PageRenderer(W, H, 15 + seed);
+            page.addRandomCodes(30, 18 * f, 28 * f);
+            page.setNoise(4);
+            page.setBlur(seed % 2);
+            byte [] luma = page.renderLuma();
+            Scanner scanner = new Scanner();
+            List<TopCode> full = scanner.scan(luma, W, H, W);
+            scanner.setPrescale(f);
+            List<TopCode> found = scanner.scan(luma, W, H, W);
+            // everything the full scan finds, and nothing that isn't there
+            assertEquals(full.size(), matches(full, found));
+            assertEquals(found.size(), matches(found, page.getCodes()));
+         }
+      }
+   }
+
+
+   public void testRotationTableMatchesLoops() {
+      TopCode top = new TopCode();
+      int mask = (1 << TopCode.SECTORS) - 1;
+      for (int bits=0; bits<=mask; bits++) {
+         assertEquals(lowestRotation(bits), top.rotateLowest(bits, 0.1f));
+         float orientation = lowestRotationSectors(bits) * -TopCode.ARC;
+         orientation += 0.1f - TopCode.ARC * 0.65f;
+         assertEquals(orientation, top.getOrientation(), 0f);
+         assertEquals(countBits(bits) == 5, top.checksum(bits));
+      }
+   }
+
+
+   public void testFixedPointReadsSameCodes() throws Exception {
+      PageRenderer page = page(6, 40);
+      page.setBlur(1);
+      page.setNoise(6);
+      byte [] luma = page.renderLuma();
+      Scanner scanner = new Scanner();
+      List<TopCode> floats = scanner.scan(luma, W, H, W);
+      scanner.setFixedPoint(true);
+      assertSameCodes(floats, scanner.scan(luma, W, H, W));
+   }
+
+
+   public void testImageSourcesMatchLumaScan() throws Exception {
+      PageRenderer page = page(7, 30);
+      page.setNoise(4);
+      byte [] luma = page.renderLuma();
+      Scanner scanner = new Scanner();
+      List<TopCode> direct = scanner.scan(luma, W, H, W);
+      assertEquals(page.getCodes().size(), direct.size());
+      assertSameCodes(direct, scanner.scan(new LumaImage(luma, W, H)));
+      int [] argb = new int[W * H];
+      for (int i=0; i<argb.length; i++) {
+         argb[i] = 0xff000000 | ((luma[i] & 0xff) * 0x010101);
+      }
+      assertSameCodes(direct, scanner.scan(new ArgbImage(argb, W, H)));
+   }
+
+
+   public void testSpotGridSkipsCandidatesInsideBullseyes() throws Exception {
+      SpotGrid grid = new SpotGrid();
+      grid.reset(W, H);
+      TopCode a = new TopCode(31);
+      a.setLocation(100, 100);
+      a.setDiameter(64);
+      TopCode b = new TopCode(47);
+      b.setLocation(110, 100);
+      b.setDiameter(64);
+      grid.add(a);
+      assertTrue(grid.overlaps(100, 100));
+      assertTrue(grid.overlaps(93, 100));      // in the cell to the left
+      assertFalse(grid.overlaps(109, 100));
+      grid.add(b);
+      assertTrue(grid.overlaps(104, 100));     // in both bullseyes
+      assertTrue(grid.overlaps(109, 100));
+      assertTrue(grid.overlaps(117, 100));
+      assertFalse(grid.overlaps(119, 100));
+      assertFalse(grid.overlaps(105, 110));
+      grid.reset(W, H);
+      assertFalse(grid.overlaps(100, 100));
+
+      // candidates inside a decoded bullseye are skipped, the same
+      // number for each of two codes as for either code alone
+      PageRenderer page = new PageRenderer(W, H, 26);
+      page.addCode(31, 300, 200, 80, 0);
+      Scanner scanner = new Scanner();
+      List<TopCode> found = scanner.scan(page.renderLuma(), W, H, W);
+      assertEquals(1, matches(page.getCodes(), found));
+      int tested = scanner.getTestedCount();
+      int skipped = scanner.getOverlapCount();
+      assertTrue(skipped > 0);
+      assertTrue(tested + skipped <= scanner.getCandidateCount());
+      page.addCode(47, 700, 500, 80, 0);
+      found = scanner.scan(page.renderLuma(), W, H, W);
+      assertEquals(2, matches(page.getCodes(), found));
+      assertEquals(tested * 2, scanner.getTestedCount());
+      assertEquals(skipped * 2, scanner.getOverlapCount());
+   }
+
+
+   public void testScanIntoReusesListEntries() throws Exception {
+      PageRenderer a = page(24, 30);
+      PageRenderer b = page(25, 12);
+      byte [] lumaA = a.renderLuma();
+      byte [] lumaB = b.renderLuma();
+      Scanner scanner = new Scanner();
+      TopCodeList list = new TopCodeList();
+
+      scanner.scanInto(lumaA, W, H, W, list);
+      assertEquals(30, list.size());
+      assertEquals(30, matches(a.getCodes(), list));
+      TopCode [] entries = list.toArray(new TopCode[0]);
+
+      scanner.scanInto(lumaB, W, H, W, list);
+      assertEquals(12, list.size());
+      assertEquals(12, matches(b.getCodes(), list));
+      assertEquals(0, matches(a.getCodes(), list));
+      assertSameCodes(scanner.scan(lumaB, W, H, W), list);
+      for (int i=0; i<list.size(); i++) {
+         assertSame(entries[i], list.get(i));
+      }
+
+      scanner.scanInto(new byte[W * H], W, H, W, list);
+      assertEquals(0, list.size());
+
+      scanner.scanInto(lumaA, W, H, W, list);
+      assertEquals(30, matches(a.getCodes(), list));
+      assertSameCodes(scanner.scan(lumaA, W, H, W), list);
+      for (int i=0; i<list.size(); i++) {
+         assertSame(entries[i], list.get(i));
+      }
+   }
+
+
+   public void testAutoCalibrationNarrowsBetweenWideScans() throws Exception {
+      PageRenderer page = new PageRenderer(W, H, 8);
+      page.addRandomCodes(30, 60, 80);
+      byte [] luma = page.renderLuma();
+      Scanner scanner = new Scanner();
+      scanner.setAutoCalibration(3);
+      for (int i=0; i<6; i++) {
+         int [] range = scanner.getCandidateRunRange();
+         assertEquals(i % 3 == 0, range[1] == 80);
+         List<TopCode> found = scanner.scan(luma, W, H, W);
+         assertEquals(page.getCodes().size(), matches(page.getCodes(), found));
+      }
+   }
+
+
+   public void testRunLengthMarkingMatchesPixelMarking() throws Exception {
+      PageRenderer page = page(9, 40);
+      page.setNoise(12);
+      byte [] luma = page.renderLuma();
+      Scanner scanner = new Scanner();
+      List<TopCode> pixels = scanner.scan(luma, W - 5, H, W);
+      int candidates = scanner.getCandidateCount();
+      scanner.setRunLengthMarking(true);
+      assertSameCodes(pixels, scanner.scan(luma, W - 5, H, W));
+      assertEquals(candidates, scanner.getCandidateCount());
+   }
+
+
+   public void testClusteringDecodesFewerCandidates() throws Exception {
+      PageRenderer page = page(10, 40);
+      byte [] luma = page.renderLuma();
+      Scanner scanner = new Scanner();
+      scanner.scan(luma, W, H, W);
+      int tested = scanner.getTestedCount();
+      scanner.setClustering(true);
+      List<TopCode> found = scanner.scan(luma, W, H, W);
+      assertEquals(page.getCodes().size(), matches(page.getCodes(), found));
+      assertTrue(scanner.getClusterCount() > 0);
+      assertTrue(scanner.getTestedCount() < tested);
+      scanner.setThreadCount(3);
+      assertSameCodes(found, scanner.scan(luma, W, H, W));
+      scanner.close();
+   }
+
+
+   public void testClusterFallsBackToOtherPixels() throws Exception {
+      PageRenderer page = page(13, 30);
+      byte [] luma = page.renderLuma();
+      final List<Integer> firsts = new java.util.ArrayList<Integer>();
+
+      // fails the first three pixels tried in every cluster
+      Scanner scanner = new Scanner() {
+         int root = -1;
+         int tries = 0;
+         protected int attempt(int c, TopCodeList spots, SpotGrid found) {
+            if (parent[c] != root) {
+               root = parent[c];
+               tries = 0;
+               firsts.add(c == center[root] ? 1 : 0);
+            }
+            if (tries++ < 3) return FAILED;
+            return super.attempt(c, spots, found);
+         }
+      };
+      scanner.setClustering(true);
+      List<TopCode> found = scanner.scan(luma, W, H, W);
+      assertEquals(page.getCodes().size(), matches(page.getCodes(), found));
+      assertFalse(firsts.contains(0));
+   }
+
+
+   public void testCrossCheckRejectsBars() throws Exception {
+      PageRenderer page = page(11, 30);
+      page.addBars(60, 3);
+      page.setBlur(1);
+      page.setNoise(6);
+      byte [] luma = page.renderLuma();
+      Scanner scanner = new Scanner();
+      List<TopCode> plain = scanner.scan(luma, W, H, W);
+      int tested = scanner.getTestedCount();
+      scanner.setCrossCheck(true);
+      List<TopCode> checked = scanner.scan(luma, W, H, W);
+      assertEquals(matches(page.getCodes(), plain), matches(page.getCodes(), checked));
+      assertTrue(scanner.getRejectedCount() > 0);
+      assertTrue(scanner.getTestedCount() * 2 < tested);
+      scanner.setThreadCount(3);
+      assertSameCodes(checked, scanner.scan(luma, W, H, W));
+      scanner.close();
+
+      // small blurred codes, where the white ring around the bullseye
+      // closes up along some of the lines checked
+      page = new PageRenderer(W, H, 106);
+      page.addRandomCodes(30, 36, 48);
+      page.addBars(60, 3);
+      page.setBlur(1);
+      page.setNoise(4);
+      luma = page.renderLuma();
+      scanner = new Scanner();
+      plain = scanner.scan(luma, W, H, W);
+      assertEquals(page.getCodes().size(), matches(page.getCodes(), plain));
+      scanner.setCrossCheck(true);
+      assertEquals(plain.size(), matches(plain, scanner.scan(luma, W, H, W)));
+   }
+
+
+   public void testScannerPoolLendsEachScannerToOneThread() throws Exception {
+      final byte [] luma = page(12, 30).renderLuma();
+      final List<TopCode> expected = new Scanner().scan(luma, W, H, W);
+      final ScannerPool pool = new ScannerPool(2);
+      final Scanner [] lent = new Scanner[2];
+
+      pool.withScanner(W, H, new ScannerPool.Task<Object>() {
+         public Object run(Scanner scanner) {
+            lent[0] = scanner;
+            return pool.withScanner(W / 2, H / 2, new ScannerPool.Task<Object>() {
+               public Object run(Scanner inner) {
+                  lent[1] = inner;
+                  return null;
+               }
+            });
+         }
+      });
+      assertNotSame(lent[0], lent[1]);
+      assertEquals(2, pool.getMissCount());
+
+      // the small request gets the small scanner back
+      pool.withScanner(W / 2, H / 2, new ScannerPool.Task<Object>() {
+         public Object run(Scanner scanner) {
+            assertSame(lent[1], scanner);
+            return null;
+         }
+      });
+
+      final List<List<TopCode>> results = new java.util.Vector<List<TopCode>>();
+      Thread [] workers = new Thread[4];
+      for (int i=0; i<workers.length; i++) {
+         workers[i] = new Thread() {
+            public void run() {
+               for (int n=0; n<3; n++) {
+                  results.add(pool.withScanner(W, H, new ScannerPool.Task<List<TopCode>>() {
+                     public List<TopCode> run(Scanner scanner) {
+                        return scanner.scan(luma, W, H, W);
+                     }
+                  }));
+               }
+            }
+         };
+         workers[i].start();
+      }
+      for (Thread worker : workers) {
+         worker.join();
+      }
+      assertEquals(12, results.size());
+      for (List<TopCode> found : results) {
+         assertSameCodes(expected, found);
+      }
+      assertTrue(pool.getMissCount() <= 3);
+   }
+
+
+   public void testNestedScannerOnFullPoolFailsInsteadOfWaiting() {
+      final ScannerPool pool = new ScannerPool(1);
+      try {
+         pool.withScanner(W, H, new ScannerPool.Task<Object>() {
+            public Object run(Scanner scanner) {
+               return pool.withScanner(W, H, new ScannerPool.Task<Object>() {
+                  public Object run(Scanner inner) {
+                     fail("lent a scanner that is already in use");
+                     return null;
+                  }
+               });
+            }
+         });
+         fail("nested withScanner() on a full pool returned");
+      } catch (IllegalStateException x) { }
+
+      // the outer scanner went back to the pool
+      assertEquals(Boolean.TRUE, pool.withScanner(W, H, new ScannerPool.Task<Boolean>() {
+         public Boolean run(Scanner scanner) {
+            return Boolean.TRUE;
+         }
+      }));
+      assertEquals(1, pool.getMissCount());
+   }
+
+
+/**
+ * Returns the lowest of the 13-bit rotations of bits, found by trying
+ * each rotation in turn.
+ */
+   protected int lowestRotation(int bits) {
+      int mask = (1 << TopCode.SECTORS) - 1;
+      int min = bits;
+      for (int i=1; i<=TopCode.SECTORS; i++) {
+         bits = ((bits << 1) & mask) | (bits >> (TopCode.SECTORS - 1));
+         if (bits < min) min = bits;
+      }
+      return min;
+   }
+
+
+/**
+ * Returns the number of sectors bits must be rotated by to give the
+ * lowest rotation (the first one found if there are several).
+ */
+   protected int lowestRotationSectors(int bits) {
+      int mask = (1 << TopCode.SECTORS) - 1;
+      int min = bits;
+      int rot = 0;
+      for (int i=1; i<=TopCode.SECTORS; i++) {
+         bits = ((bits << 1) & mask) | (bits >> (TopCode.SECTORS - 1));
+         if (bits < min) {
+            min = bits;
+            rot = i;
+         }
+      }
+      return rot;
+   }
+
+
+/**
+ * Counts the set bits of a 13-bit reading one at a time
+ */
+   protected int countBits(int bits) {
+      int sum = 0;
+      for (int i=0; i<TopCode.SECTORS; i++) {
+         sum += (bits & 0x01);
+         bits = bits >> 1;
+      }
+      return sum;
+   }
+
+
+/**
+ * Copies the page into a frame shifted right by dx and down by dy,
+ * filling the uncovered pixels with paper.
+ */
+   protected byte [] pan(byte [] page, int dx, int dy) {
+      byte [] frame = new byte[W * H];
+      java.util.Arrays.fill(frame, (byte)232);
+      for (int j=0; j<H - dy; j++) {
+         System.arraycopy(page, j * W, frame, (j + dy) * W + dx, W - dx);
+      }
+      return frame;
+   }
+
+
+   public void testTrackingFollowsPanningPage() throws Exception {
+      PageRenderer page = page(14, 20);
+      byte [] luma = page.renderLuma();
+      TrackingScanner tracker = new TrackingScanner();
+      tracker.setInterval(4);
+      Scanner scanner = new Scanner();
+      TopCodeList tracked = new TopCodeList();
+      TopCode gone = null;
+
+      for (int k=0; k<11; k++) {
+         int step = (k % 6 < 3) ? k % 6 : 6 - k % 6;
+         byte [] frame = pan(luma, step * 2, step);
+         if (k >= 9) {
+            // from frame 9 on, cover the first code found in frame 8
+            if (gone == null) gone = new TopCode(tracked.get(0));
+            int r = (int)gone.getDiameter() / 2 + 2;
+            for (int j=-r; j<=r; j++) {
+               for (int i=-r; i<=r; i++) {
+                  int x = (int)gone.getCenterX() + i;
+                  int y = (int)gone.getCenterY() + j;
+                  if (x >= 0 && y >= 0 && x < W && y < H) frame[y * W + x] = (byte)232;
+               }
+            }
+         }
+
+         tracker.trackInto(frame, W, H, W, tracked);
+         List<TopCode> found = scanner.scan(frame, W, H, W);
+         assertEquals(k == 9 || k % 4 == 0, tracker.wasFullScan());
+         assertEquals(found.size(), tracked.size());
+         assertEquals(found.size(), matches(found, tracked));
+         assertEquals(page.getCodes().size() - (k < 9 ? 0 : 1), found.size());
+      }
+   }
+}
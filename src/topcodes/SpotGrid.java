@@ -0,0 +1,138 @@
+/*
+ * @(#) SpotGrid.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes;
+
+
+/**
+ * Spatial index of the TopCodes found so far during a scan, used to
+ * skip candidate pixels that fall inside a code's bullseye.  The image
+ * is divided into square cells and each code is filed under every cell
+ * that its bullseye touches, so a lookup only tests the few codes near
+ * the candidate no matter how many codes are on the page.  Cells are
+ * linked lists threaded through int arrays, so the grid can be cleared
+ * and reused between scans without allocating.
+ *
+ * @author agent
+ */
+public class SpotGrid {
+
+   /** Cells are (1 << CELL) pixels on a side */
+   protected static int CELL = 5;
+
+   /** Number of columns of cells */
+   protected int cols;
+
+   /** Number of rows of cells */
+   protected int rows;
+
+   /** First entry of each cell (or -1 if empty) */
+   protected int [] head;
+
+   /** Next entry in the same cell (or -1) */
+   protected int [] next;
+
+   /** Code for each entry */
+   protected TopCode [] tops;
+
+   /** Number of entries in use */
+   protected int size;
+
+
+/**
+ * Default constructor
+ */
+   public SpotGrid() {
+      this.cols = 0;
+      this.rows = 0;
+      this.head = new int[0];
+      this.next = new int[32];
+      this.tops = new TopCode[32];
+      this.size = 0;
+   }
+
+
+/**
+ * Empties the grid and sizes it for an image of the given dimensions.
+ */
+   public void reset(int width, int height) {
+      this.cols = Math.max(1, (width + (1 << CELL) - 1) >> CELL);
+      this.rows = Math.max(1, (height + (1 << CELL) - 1) >> CELL);
+      if (head.length < cols * rows) {
+         this.head = new int[cols * rows];
+      }
+      for (int i=0; i<cols * rows; i++) {
+         head[i] = -1;
+      }
+      for (int i=0; i<size; i++) {
+         tops[i] = null;
+      }
+      this.size = 0;
+   }
+
+
+/**
+ * Adds a decoded code to the grid
+ */
+   public void add(TopCode top) {
+      int c0 = col(top.x - top.unit);
+      int c1 = col(top.x + top.unit);
+      int r0 = row(top.y - top.unit);
+      int r1 = row(top.y + top.unit);
+      for (int r=r0; r<=r1; r++) {
+         for (int c=c0; c<=c1; c++) {
+            if (size == next.length) {
+               int [] n = new int[size * 2];
+               TopCode [] t = new TopCode[size * 2];
+               System.arraycopy(next, 0, n, 0, size);
+               System.arraycopy(tops, 0, t, 0, size);
+               next = n;
+               tops = t;
+            }
+            int cell = r * cols + c;
+            tops[size] = top;
+            next[size] = head[cell];
+            head[cell] = size++;
+         }
+      }
+   }
+
+
+/**
+ * Returns true if point (x,y) is in the bullseye of a code in the grid
+ */
+   public boolean overlaps(int x, int y) {
+      int k = head[row(y) * cols + col(x)];
+      while (k >= 0) {
+         if (tops[k].inBullsEye(x, y)) return true;
+         k = next[k];
+      }
+      return false;
+   }
+
+
+   protected int col(float x) {
+      return Math.max(0, Math.min(cols - 1, (int)Math.floor(x) >> CELL));
+   }
+
+
+   protected int row(float y) {
+      return Math.max(0, Math.min(rows - 1, (int)Math.floor(y) >> CELL));
+   }
+}
@@ -24,11 +24,6 @@
  */
 package topcodes;
 
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.RectF;
-import android.graphics.Canvas;
-
 
 /**
  * TopCodes (Tangible Object Placement Codes) are black-and-white
@@ -58,6 +53,65 @@ public class TopCode {
    /** Span of a data sector in radians */
    protected static float ARC = (2 * PI / SECTORS);
 
+   /** Number of arc adjustments (fractions of a sector) tried by decode */
+   protected static int ARCS = 10;
+
+   /** Unit adjustments tried by decode range from -STEPS to STEPS */
+   protected static int STEPS = 2;
+
+   /** Highest possible confidence score from readCode */
+   protected static int MAX_CONFIDENCE = SECTORS * 8 * 0xff;
+
+   /** Sector direction vectors (cosine) for each arc adjustment */
+   protected static float [][] COS = new float[ARCS][SECTORS];
+
+   /** Sector direction vectors (sine) for each arc adjustment */
+   protected static float [][] SIN = new float[ARCS][SECTORS];
+
+   /** COS in 16.16 fixed point */
+   protected static int [][] COSX = new int[ARCS][SECTORS];
+
+   /** SIN in 16.16 fixed point */
+   protected static int [][] SINX = new int[ARCS][SECTORS];
+
+   /**
+    * For every 13-bit reading: the lowest rotation of the bits (low 13
+    * bits), the number of sectors it is rotated by (next 4 bits) and
+    * whether it passes the checksum (VALID)
+    */
+   protected static int [] ROTATIONS = new int[1 << SECTORS];
+
+   /** Flag set in ROTATIONS for readings with a valid checksum */
+   protected static int VALID = 1 << 17;
+
+   static {
+      int mask = (1 << SECTORS) - 1;
+      for (int base = 0; base <= mask; base++) {
+         int bits = base;
+         int min = base;
+         int rot = 0;
+         for (int i=1; i<=SECTORS; i++) {
+            bits = (((bits << 1) & mask) | (bits >> (SECTORS - 1)));
+            if (bits < min) {
+               min = bits;
+               rot = i;
+            }
+         }
+         ROTATIONS[base] = min | (rot << SECTORS) |
+            ((Integer.bitCount(base) == 5) ? VALID : 0);
+      }
+
+      for (int a = 0; a < ARCS; a++) {
+         float arca = a * ARC * 0.1f;
+         for (int sector = 0; sector < SECTORS; sector++) {
+            COS[a][sector] = (float)Math.cos(ARC * sector + arca);
+            SIN[a][sector] = (float)Math.sin(ARC * sector + arca);
+            COSX[a][sector] = Math.round(COS[a][sector] * 65536);
+            SINX[a][sector] = Math.round(SIN[a][sector] * 65536);
+         }
+      }
+   }
+
    /** The symbol's code, or -1 if invalid. */
    protected int code;
 
@@ -76,6 +130,15 @@ public class TopCode {
    /** Buffer used to decode sectors */
    protected int [] core;
 
+   /** Confidence score of the reading that produced the code */
+   protected int confidence;
+
+   /** Arc adjustment (index into COS and SIN) of the best reading */
+   protected int besta;
+
+   /** Unit adjustment step of the best reading */
+   protected int bests;
+
 
 /**
  * Default constructor
@@ -87,6 +150,7 @@ public class TopCode {
       this.x = 0;
       this.y = 0;
       this.core = new int[WIDTH];
+      this.confidence = 0;
    }
    
    
@@ -95,11 +159,22 @@ public class TopCode {
  */
    public TopCode(TopCode top) {
       this();
+      copy(top);
+   }
+
+
+/**
+ * Sets this code to a copy of the given topcode
+ */
+   protected void copy(TopCode top) {
       this.code = top.code;
       this.unit = top.unit;
       this.orientation = top.orientation;
       this.x = top.x;
       this.y = top.y;
+      this.confidence = top.confidence;
+      this.besta = top.besta;
+      this.bests = top.bests;
    }
 
 
@@ -191,6 +266,16 @@ public class TopCode {
    }
 
    
+/**
+ * Returns the confidence of the reading that produced this code,
+ * from 0 (no reading) to 1 (every sample was solid black or white).
+ * This value is set by the decode() function.
+ */
+   public float getConfidence() {
+      return (float)this.confidence / MAX_CONFIDENCE;
+   }
+
+
 /**
  * Returns true if this code was sucessfully decoded.
  */
@@ -201,10 +286,70 @@ public class TopCode {
    
 /**
  * Decodes a symbol given any point (cx, cy) inside the center
- * circle (bulls-eye) of the code.  
+ * circle (bulls-eye) of the code.  The scanner's decode mode chooses
+ * how unit and arc adjustments are searched (see
+ * Scanner.setDecodeMode).
  */
    public int decode(Scanner scanner, int cx, int cy) {
 
+      locate(scanner, cx, cy);
+      this.unit = readUnit(scanner);
+      this.code = -1;
+      this.confidence = 0;
+      if (unit < 0) return -1;
+
+      //-----------------------------------------
+      // Try different unit and arc adjustments,
+      // save the one that produces a maximum
+      // confidence reading...
+      //-----------------------------------------
+      if (scanner.getDecodeMode() == Scanner.DECODE_COARSE) {
+         coarseSearch(scanner, scanner.getDecodeConfidence());
+      } else {
+         exhaustiveSearch(scanner);
+      }
+         
+      return settle(scanner);
+   }
+
+
+/**
+ * Re-reads a code that was decoded in an earlier frame, given any
+ * point (cx, cy) inside its bulls-eye in the new frame.  The previous
+ * unit and arc adjustment are the starting point for the search, so a
+ * code that has only moved or turned a little is read in a few probes.
+ * Returns -1 if no reading of the code is valid.
+ */
+   public int track(Scanner scanner, int cx, int cy) {
+      int goal = (int)Math.ceil(scanner.getDecodeConfidence() * MAX_CONFIDENCE);
+      int start = besta;
+      long tried = 0;
+
+      locate(scanner, cx, cy);
+      this.code = -1;
+      this.confidence = 0;
+      this.bests = 0;
+
+      probe(scanner, 0, start);
+      tried |= (1L << (STEPS * ARCS + start));
+      for (int a = 0; a < ARCS && confidence == 0; a++) {
+         if (a != start) {
+            probe(scanner, 0, a);
+            tried |= (1L << (STEPS * ARCS + a));
+         }
+      }
+      if (confidence == 0) return -1;
+
+      climb(scanner, goal, tried);
+      return settle(scanner);
+   }
+
+
+/**
+ * Moves the center of the symbol from (cx, cy) to the middle of the
+ * bulls-eye, as measured from the distances to its edges.
+ */
+   protected void locate(Scanner scanner, int cx, int cy) {
       int up = (scanner.ydist(cx, cy, -1) +
                 scanner.ydist(cx - 1, cy, -1) +
                 scanner.ydist(cx + 1, cy, -1));
@@ -226,66 +371,230 @@ public class TopCode {
       this.y = cy;
       this.x += (right - left) / 6.0f;
       this.y += (down - up) / 6.0f;
-      this.unit = readUnit(scanner);
-      this.code = -1;
-      if (unit < 0) return -1;
+   }
 
-      int c = 0;
-      int maxc = 0;
-      float arca;
-      float maxa = 0;
-      float maxu = 0;
 
-      //-----------------------------------------
-      // Try different unit and arc adjustments,
-      // save the one that produces a maximum
-      // confidence reading...
-      //-----------------------------------------
-      for (int u = -2; u <= 2; u++) { 
-         for (int a = 0; a < 10; a++) {
-            arca = a * ARC * 0.1f;
-            c = readCode(scanner,
-                         unit + (unit * 0.05f * u),
-                         arca);
-            if (c > maxc) { 
-               maxc = c;
-               maxa = arca;
-               maxu = unit + (unit * 0.05f * u);
+/**
+ * Applies the best unit and arc adjustment found by a search.  One
+ * last call to readCode resets the orientation and code.
+ */
+   protected int settle(Scanner scanner) {
+      if (confidence > 0) {
+         unit = unit + (unit * 0.05f * bests);
+         readArc(scanner, unit, besta);
+         this.code = rotateLowest(code, besta * ARC * 0.1f);
+      }
+      
+      return this.code;
+   }
+
+
+/**
+ * Tries every combination of unit and arc adjustment.
+ */
+   protected void exhaustiveSearch(Scanner scanner) {
+      exhaustiveSearch(scanner, 0);
+   }
+
+
+/**
+ * Tries every combination of unit and arc adjustment that isn't marked
+ * in tried (bits as in climb()).
+ */
+   protected void exhaustiveSearch(Scanner scanner, long tried) {
+      for (int u = -STEPS; u <= STEPS; u++) { 
+         for (int a = 0; a < ARCS; a++) {
+            if ((tried & (1L << ((u + STEPS) * ARCS + a))) == 0) {
+               probe(scanner, u, a);
             }
          }
       }
-         
-      // One last call to readCode to reset orientation and code
-      if (maxc > 0) {
-         unit = maxu;
-         readCode(scanner, unit, maxa);
-         this.code = rotateLowest(code, maxa);
+   }
+
+
+/**
+ * Starts with a handful of arc adjustments at the measured unit size
+ * and then climbs to the best neighboring adjustment until no neighbor
+ * does better.  The search stops as soon as a reading reaches the
+ * target confidence (0 to 1).  If no coarse reading is valid, falls
+ * back to the exhaustive search over the adjustments not read yet.  Arc
+ * adjustments wrap around: an adjustment of ARCS is the same set of
+ * directions as zero, shifted by one sector.
+ */
+   protected void coarseSearch(Scanner scanner, float target) {
+      int goal = (int)Math.ceil(target * MAX_CONFIDENCE);
+      long tried = 0;
+      
+      for (int a = 0; a < ARCS; a += 2) {
+         probe(scanner, 0, a);
+         tried |= (1L << (STEPS * ARCS + a));
+         if (confidence >= goal) return;
       }
       
-      return this.code;
+      if (confidence == 0) {
+         exhaustiveSearch(scanner, tried);
+         return;
+      }
+      climb(scanner, goal, tried);
+   }
+
+
+/**
+ * Climbs from the best reading so far to the best neighboring unit and
+ * arc adjustment until no neighbor does better or the goal confidence
+ * is reached.  Bits of tried mark the adjustments already read.
+ */
+   protected void climb(Scanner scanner, int goal, long tried) {
+      boolean moved = true;
+      while (moved && confidence < goal) {
+         moved = false;
+         int cs = bests;
+         int ca = besta;
+         for (int du = -1; du <= 1; du++) {
+            for (int da = -1; da <= 1; da++) {
+               int u = cs + du;
+               int a = (ca + da + ARCS) % ARCS;
+               int bit = (u + STEPS) * ARCS + a;
+               if (u < -STEPS || u > STEPS || (tried & (1L << bit)) != 0) {
+                  continue;
+               }
+               tried |= (1L << bit);
+               int c = confidence;
+               probe(scanner, u, a);
+               if (confidence > c) moved = true;
+            }
+         }
+      }
+   }
+
+
+/**
+ * Reads the code with the given unit step and arc adjustment and keeps
+ * it if it is the most confident reading so far.
+ */
+   protected void probe(Scanner scanner, int u, int a) {
+      int c = readArc(scanner, unit + (unit * 0.05f * u), a);
+      if (c > confidence) {
+         confidence = c;
+         besta = a;
+         bests = u;
+      }
    }
 
    
 /**
  * Attempts to decode the binary pixels of an image into a code
- * value.
+ * value.  Returns the confidence of the reading (0 if it isn't valid).
  *
  * scanner - image scanner
  * unit    - width of a single ring (codes are 8 units wide)
- * arca    - Arc adjustment.  Rotation correction delta value.    
+ * arc     - Arc adjustment, as an index (0 to ARCS - 1) into the
+ *           precomputed sector direction tables, so that no trig
+ *           functions are called.
+ */
+   protected int readArc(Scanner scanner, float unit, int arc) {
+      if (scanner.getFixedPoint()) {
+         return readCode(scanner, Math.round(unit * 65536), COSX[arc], SINX[arc]);
+      }
+      return readCode(scanner, unit, COS[arc], SIN[arc]);
+   }
+
+
+/**
+ * Same as readCode(Scanner, float, float[], float[]), but with the unit
+ * and the direction vectors in 16.16 fixed point.  Sample positions are
+ * stepped across the diameter with integer adds and rounded with a
+ * shift, so there are no float operations per sample.
+ */
+   protected int readCode(Scanner scanner, int unit, int [] cos, int [] sin) {
+
+      int dx, dy;  // step between samples (16.16)
+      int px, py;  // sample position (16.16)
+      int cx = Math.round(x * 65536);
+      int cy = Math.round(y * 65536);
+      int c = 0;
+      int bit, bits = 0;
+      int r = unit >> 18;   // sample window radius (a quarter unit)
+      this.code = -1;
+
+      for (int sector = SECTORS-1; sector >= 0; sector--) {
+         dx = (int)(((long)cos[sector] * unit) >> 16);
+         dy = (int)(((long)sin[sector] * unit) >> 16);
+
+         // Take 8 samples across the diameter, starting 3.5 units out
+         px = cx - ((dx * 7) >> 1) + 0x8000;
+         py = cy - ((dy * 7) >> 1) + 0x8000;
+         for (int i=0; i<WIDTH; i++) {
+            core[i] = scanner.getSample(px >> 16, py >> 16, r);
+            px += dx;
+            py += dy;
+         }
+
+         int sc = readSector();
+         if (sc < 0) return 0;
+         c += sc;
+
+         bit = (core[7] > 128)? 1 : 0;
+         bits <<= 1;
+         bits += bit;
+      }
+
+      if ((ROTATIONS[bits] & VALID) != 0) {
+         this.code = bits;
+         return c;
+      } else {
+         return 0;
+      }
+   }
+
+
+/**
+ * Checks the rings of the 8 samples taken across one sector (in core)
+ * and returns the confidence in them, or -1 if the rings are wrong.
  */
-   protected int readCode(Scanner scanner, float unit, float arca) {
+   protected int readSector() {
+
+      // white rings
+      if (core[1] <= 128 || core[3] <= 128 ||
+          core[4] <= 128 || core[6] <= 128) {
+         return -1;
+      }
+
+      // black ring
+      if (core[2] > 128 || core[5] > 128) {
+         return -1;
+      }
+
+      // compute confidence in core sample
+      int c = (core[1] + core[3] + core[4] + core[6] + // white rings
+               (0xff - core[2]) + (0xff - core[5]));  // black ring
+
+      // data rings
+      c += Math.abs(core[7] * 2 - 0xff);
+
+      // opposite data ring
+      c += (0xff - Math.abs(core[0] * 2 - 0xff));
+
+      return c;
+   }
+
+
+/**
+ * Reads the code using the given direction vector for each sector.
+ */
+   protected int readCode(Scanner scanner, float unit, float [] cos, float [] sin) {
 
       float dx, dy;  // direction vector
       float dist;
       int c = 0;
       int sx, sy;
       int bit, bits = 0;
+      int r = (int)(unit * 0.25f);   // sample window radius
       this.code = -1;
 
       for (int sector = SECTORS-1; sector >= 0; sector--) {
-         dx = (float)Math.cos(ARC * sector + arca);
-         dy = (float)Math.sin(ARC * sector + arca);
+         dx = cos[sector];
+         dy = sin[sector];
       
          // Take 8 samples across the diameter of the symbol
          for (int i=0; i<WIDTH; i++) {
@@ -293,36 +602,19 @@ public class TopCode {
 
             sx = (int)Math.round(x + dx * dist);
             sy = (int)Math.round(y + dy * dist);
-            core[i] = scanner.getSample3x3(sx, sy);
+            core[i] = scanner.getSample(sx, sy, r);
          }
 
-         // white rings
-         if (core[1] <= 128 || core[3] <= 128 ||
-             core[4] <= 128 || core[6] <= 128) {
-            return 0;
-         }
-
-         // black ring
-         if (core[2] > 128 || core[5] > 128) {
-            return 0;
-         }
-
-         // compute confidence in core sample
-         c += (core[1] + core[3] + core[4] + core[6] + // white rings
-               (0xff - core[2]) + (0xff - core[5]));  // black ring
-
-         // data rings
-         c += Math.abs(core[7] * 2 - 0xff);
-
-         // opposite data ring
-         c += (0xff - Math.abs(core[0] * 2 - 0xff));
+         int sc = readSector();
+         if (sc < 0) return 0;
+         c += sc;
 
          bit = (core[7] > 128)? 1 : 0;
          bits <<= 1;
          bits += bit;
       }
 
-      if (checksum(bits)) {
+      if ((ROTATIONS[bits] & VALID) != 0) {
          this.code = bits;
          return c;
       } else {
@@ -332,12 +624,12 @@ public class TopCode {
 
       
 /**
- * rotateLowest() tries each of the possible rotations and returns
- * the lowest.  
+ * Returns the lowest of the rotations of a 13-bit reading and sets the
+ * orientation to match, looking both up in the ROTATIONS table.
  */
    protected int rotateLowest(int bits, float arca) {
-      int min = bits;
-      int mask = 0x1fff;
+      int entry = ROTATIONS[bits & 0x1fff];
+      int rot = (entry >> SECTORS) & 0xf;
 
       // slightly overcorrect arc-adjustment
       // ideal correction would be (ARC / 2),
@@ -345,20 +637,9 @@ public class TopCode {
       // that falls out of the algorithm.
       arca -= (ARC * 0.65f);
       
-      this.orientation = 0;
-
-      for (int i=1; i<=SECTORS; i++) {
-
-         bits = (((bits << 1) & mask) |
-                 (bits >> (SECTORS - 1)));
-         if (bits < min) { 
-            min = bits;
-            this.orientation = (i * -ARC);
-         }
-      }
-
+      this.orientation = (rot > 0) ? (rot * -ARC) : 0;
       this.orientation += arca;
-      return min;
+      return entry & 0x1fff;
    }
    
    
@@ -366,12 +647,7 @@ public class TopCode {
  * Only codes with a checksum of 5 are valid
  */
    protected boolean checksum(int bits) {
-      int sum = 0;
-      for (int i=0; i<SECTORS; i++) {
-         sum += (bits & 0x01);
-         bits = bits >> 1;
-      }
-      return (sum == 5);
+      return (ROTATIONS[bits & 0x1fff] & VALID) != 0;
    }
 
    
@@ -461,40 +737,6 @@ public class TopCode {
    }
 
 
-/**
- * Draws this code with its current location and orientation
- */
-   public void draw(Canvas g) {
-
-      Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
-      
-      int bits = this.code;
-      float sweep = 360.0f / SECTORS;
-      float a = (orientation * 180 / PI);
-      float r = WIDTH * 0.5f * unit;
-      
-      paint.setColor(Color.WHITE);
-      g.drawCircle(x, y, r, paint);
-      
-      RectF oval = new RectF(x - r, y - r, x + r, y + r);
-      for (int i=0; i<SECTORS; i++) {
-         paint.setColor(((bits & 0x1) > 0)? Color.WHITE : Color.BLACK);
-         g.drawArc(oval, i * sweep + a, sweep, true, paint);
-         bits >>= 1;
-      }
-
-      paint.setColor(Color.WHITE);
-      g.drawCircle(x, y, r - unit, paint);
-
-      paint.setColor(Color.BLACK);
-      g.drawCircle(x, y, r - unit * 2, paint);
-
-      paint.setColor(Color.WHITE);
-      g.drawCircle(x, y, r - unit * 3, paint);
-   }
-
-
-
 /**
  * Debug routine that prints the 13 least significant bits of a
  * integer.    
@@ -0,0 +1,118 @@
+/*
+ * @(#) TopCodeList.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes;
+
+
+/**
+ * A list of TopCodes whose entries are recycled from one scan to the
+ * next.  Pass the same list to Scanner.scanInto() for every frame of a
+ * continuous scan: the list grows to hold the most codes seen in a
+ * frame and after that no further objects are created.
+ *
+ * The list owns its entries.  A TopCode returned by get() is
+ * overwritten by the next scan into the same list, so callers that
+ * need to keep a code between frames should copy it with
+ * new TopCode(top).  Use an indexed loop rather than an iterator to
+ * walk the list without creating garbage.
+ *
+ * @author agent
+ */
+public class TopCodeList extends java.util.AbstractList<TopCode> {
+
+   /** Entries (including spare ones past size) */
+   protected TopCode [] items;
+
+   /** Number of entries in use */
+   protected int size;
+
+
+/**
+ * Default constructor
+ */
+   public TopCodeList() {
+      this.items = new TopCode[16];
+      this.size  = 0;
+   }
+
+
+/**
+ * Returns the number of codes in the list
+ */
+   public int size() {
+      return this.size;
+   }
+
+
+/**
+ * Returns the i'th code in the list
+ */
+   public TopCode get(int i) {
+      if (i < 0 || i >= size) {
+         throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+      }
+      return items[i];
+   }
+
+
+/**
+ * Empties the list.  Entries are kept to be reused.
+ */
+   public void clear() {
+      this.size = 0;
+   }
+
+
+/**
+ * Returns the spare entry just past the end of the list, creating it
+ * if needed.  The entry isn't part of the list until commit() is
+ * called, so a failed decode can simply be overwritten.
+ */
+   protected TopCode next() {
+      if (size == items.length) {
+         TopCode [] t = new TopCode[size * 2];
+         System.arraycopy(items, 0, t, 0, size);
+         items = t;
+      }
+      if (items[size] == null) {
+         items[size] = new TopCode();
+      }
+      return items[size];
+   }
+
+
+/**
+ * Adds the entry returned by next() to the end of the list
+ */
+   protected void commit() {
+      this.size++;
+   }
+
+
+/**
+ * Copies the given code into the next entry of the list and returns
+ * the entry.
+ */
+   protected TopCode append(TopCode top) {
+      TopCode entry = next();
+      entry.copy(top);
+      commit();
+      return entry;
+   }
+}
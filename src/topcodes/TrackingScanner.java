@@ -0,0 +1,283 @@
+/*
+ * @(#) TrackingScanner.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes;
+
+import java.util.List;
+
+
+/**
+ * Scans a stream of video frames for TopCodes.  Codes found in one
+ * frame are looked for again in the next frame in a small window around
+ * their last position, using their last unit size and orientation as
+ * the starting point for the decode.  Only these windows are
+ * thresholded, so a frame that doesn't need a full scan costs a small
+ * fraction of scan().
+ *
+ * A full scan is run on the first frame, whenever a known code can't
+ * be read again (it was covered, moved too far, or left the frame), and
+ * at least once every few frames (see setInterval) to pick up codes
+ * that have come into view.
+ *
+ * Settings inherited from Scanner (threshold and decode modes, maximum
+ * code size, thread count and pre-scan) apply to the full scans.
+ *
+ * @author agent
+ */
+public class TrackingScanner extends Scanner {
+
+   /** Codes found in the previous frame */
+   protected TopCodeList known;
+
+   /** Codes found again in the current frame (swapped with known) */
+   protected TopCodeList next;
+
+   /** False before the first frame and after reset() */
+   protected boolean tracking;
+
+   /** A full scan is run at least once every interval frames */
+   protected int interval;
+
+   /** Number of frames since the last full scan */
+   protected int frames;
+
+   /** Distance a code can move between frames (in code diameters) */
+   protected float motion;
+
+   /** True if the last frame was a full scan */
+   protected boolean full;
+
+
+/**
+ * Default constructor
+ */
+   public TrackingScanner() {
+      super();
+      this.known    = new TopCodeList();
+      this.next     = new TopCodeList();
+      this.tracking = false;
+      this.interval = 15;
+      this.frames   = 0;
+      this.motion   = 0.5f;
+      this.full     = false;
+   }
+
+
+/**
+ * Scans the next video frame and returns the topcodes in it.
+ */
+   public List<TopCode> track(ImageSource frame) {
+      TopCodeList out = new TopCodeList();
+      trackInto(frame, out);
+      return new java.util.ArrayList<TopCode>(out);
+   }
+
+
+/**
+ * Same as track(ImageSource), but the topcodes found replace the
+ * contents of the given list.  Entries of the list are reused from
+ * frame to frame, so passing the same list every frame tracks codes
+ * without creating garbage once the list has grown to the number of
+ * codes in view.
+ */
+   public void trackInto(ImageSource frame, TopCodeList out) {
+      this.source = frame;
+      try {
+         update(frame.getWidth(), frame.getHeight(), out);
+      } finally {
+         this.source = null;
+      }
+   }
+
+
+/**
+ * Scans the next video frame, given as an 8-bit luminance plane (see
+ * Scanner.scan(byte[], int, int, int)), and returns the topcodes in it.
+ */
+   public List<TopCode> track(byte[] luma, int width, int height, int stride) {
+      TopCodeList out = new TopCodeList();
+      trackInto(luma, width, height, stride, out);
+      return new java.util.ArrayList<TopCode>(out);
+   }
+
+
+/**
+ * Same as track(byte[], int, int, int), but the topcodes found replace
+ * the contents of the given list (see trackInto(ImageSource, TopCodeList)).
+ */
+   public void trackInto(byte[] luma, int width, int height, int stride,
+                         TopCodeList out) {
+      this.luma   = luma;
+      this.stride = stride;
+      try {
+         update(width, height, out);
+      } finally {
+         this.luma = null;
+      }
+   }
+
+
+/**
+ * Forgets the codes from the previous frame, so that the next frame
+ * gets a full scan.
+ */
+   public void reset() {
+      this.tracking = false;
+      this.frames   = 0;
+   }
+
+
+/**
+ * Sets the number of frames between full scans.  New codes that come
+ * into view are found within this many frames.  1 runs a full scan on
+ * every frame.
+ */
+   public void setInterval(int frames) {
+      this.interval = Math.max(1, frames);
+   }
+
+
+/**
+ * Returns the number of frames between full scans.
+ */
+   public int getInterval() {
+      return this.interval;
+   }
+
+
+/**
+ * Sets how far (in code diameters) a code can move from one frame to
+ * the next and still be tracked.  Larger values make bigger windows.
+ * The default is 0.5.
+ */
+   public void setMotion(float motion) {
+      this.motion = Math.max(0, motion);
+   }
+
+
+/**
+ * Returns how far a code can move between frames in code diameters.
+ */
+   public float getMotion() {
+      return this.motion;
+   }
+
+
+/**
+ * Returns true if the last frame was given a full scan.
+ */
+   public boolean wasFullScan() {
+      return this.full;
+   }
+
+
+/**
+ * Tracks the known codes in the current frame, or scans the whole
+ * frame if tracking isn't possible, and copies the codes into out.
+ */
+   protected void update(int width, int height, TopCodeList out) {
+      setRegion(0, 0, width, height);
+      this.radius = Math.max(w, h) / (INTEGRAL_S * 2);
+
+      if (tracking && frames + 1 < interval && retrack()) {
+         TopCodeList t = known;
+         this.known  = next;
+         this.next   = t;
+         this.frames++;
+         this.full   = false;
+      } else {
+         setRegion(0, 0, width, height);
+         process(known);
+         this.tracking = true;
+         this.frames   = 0;
+         this.full     = true;
+      }
+      setRegion(0, 0, width, height);
+
+      out.clear();
+      for (int k=0; k<known.size(); k++) {
+         out.append(known.get(k));
+      }
+   }
+
+
+/**
+ * Looks for each known code in a window around its last position and
+ * puts the codes found into next.  Returns false if any of them can't
+ * be found.
+ */
+   protected boolean retrack() {
+      int fw = w;
+      int fh = h;
+      int tested = 0;
+      next.clear();
+
+      for (int k=0; k<known.size(); k++) {
+         TopCode prev = known.get(k);
+         int cx = Math.round(prev.getCenterX());
+         int cy = Math.round(prev.getCenterY());
+         int r = (int)(prev.getDiameter() * (0.5f + motion)) + 4;
+         int x0 = Math.max(0, cx - r);
+         int y0 = Math.max(0, cy - r);
+         int x1 = Math.min(fw, cx + r);
+         int y1 = Math.min(fh, cy + r);
+         if (x1 - x0 < 8 || y1 - y0 < 8) return false;
+
+         setRegion(x0, y0, x1 - x0, y1 - y0);
+         threshold(warmSum());
+         TopCode top = next.next();
+         top.copy(prev);
+         tested++;
+         if (!relocate(top, cx - x0, cy - y0)) return false;
+         top.setLocation(top.getCenterX() + x0, top.getCenterY() + y0);
+         next.commit();
+      }
+
+      this.tcount = tested;
+      return true;
+   }
+
+
+/**
+ * Re-reads a code (given as a copy of the code from the last frame)
+ * from the candidate in the current window that is closest to
+ * (px, py).  Returns false if there is no candidate or it doesn't read
+ * as the same code.
+ */
+   protected boolean relocate(TopCode top, int px, int py) {
+      int bx = -1;
+      int by = -1;
+      int best = Integer.MAX_VALUE;
+
+      for (int n=0; n<cands.size(); n++) {
+         int i = cands.get(n) % w;
+         int j = cands.get(n) / w;
+         int d = (i - px) * (i - px) + (j - py) * (j - py);
+         if (d < best) {
+            best = d;
+            bx = i;
+            by = j;
+         }
+      }
+      if (bx < 0) return false;
+
+      int code = top.getCode();
+      return (top.track(this, bx, by) == code);
+   }
+}
@@ -0,0 +1,73 @@
+/*
+ * @(#) BitmapImage.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes.android;
+
+import topcodes.ArgbImage;
+import topcodes.ImageSource;
+import android.graphics.Bitmap;
+
+
+/**
+ * An ImageSource for an Android Bitmap, so that camera photos can be
+ * passed to Scanner.scan(ImageSource).  Rows are copied out of the
+ * bitmap one at a time with Bitmap.getPixels.
+ *
+ * @author agent
+ */
+public class BitmapImage implements ImageSource {
+
+   /** The wrapped bitmap */
+   protected Bitmap bitmap;
+
+
+/**
+ * Wraps the given bitmap
+ */
+   public BitmapImage(Bitmap bitmap) {
+      this.bitmap = bitmap;
+   }
+
+
+/**
+ * Returns the width of the bitmap in pixels
+ */
+   public int getWidth() {
+      return bitmap.getWidth();
+   }
+
+
+/**
+ * Returns the height of the bitmap in pixels
+ */
+   public int getHeight() {
+      return bitmap.getHeight();
+   }
+
+
+/**
+ * Reads the intensities of width pixels of row y, starting at column x
+ */
+   public void readRow(int x, int y, int width, int [] row) {
+      bitmap.getPixels(row, 0, width, x, y, width, 1);
+      for (int i=0; i<width; i++) {
+         row[i] = ArgbImage.intensity(row[i]);
+      }
+   }
+}
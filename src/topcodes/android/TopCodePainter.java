@@ -0,0 +1,78 @@
+/*
+ * @(#) TopCodePainter.java
+ * 
+ * Tangible Object Placement Codes (TopCodes)
+ * Copyright (c) 2026 agent (agent@local)
+ * 
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (version 2) as
+ * published by the Free Software Foundation.
+ * 
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package topcodes.android;
+
+import topcodes.TopCode;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+
+/**
+ * Draws TopCodes on an Android Canvas.  Kept apart from TopCode so that
+ * the scanner itself has no Android dependencies.
+ *
+ * @author agent
+ */
+public class TopCodePainter {
+
+   /** Number of sectors in the data ring (same as TopCode) */
+   protected static int SECTORS = 13;
+
+   /** Width of the code in units (same as TopCode) */
+   protected static int WIDTH = 8;
+
+
+/**
+ * Draws the given code with its current location and orientation
+ */
+   public static void draw(TopCode top, Canvas g) {
+
+      Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+      int bits = top.getCode();
+      float x = top.getCenterX();
+      float y = top.getCenterY();
+      float unit = top.getDiameter() / WIDTH;
+      float sweep = 360.0f / SECTORS;
+      float a = (top.getOrientation() * 180 / (float)Math.PI);
+      float r = WIDTH * 0.5f * unit;
+
+      paint.setColor(Color.WHITE);
+      g.drawCircle(x, y, r, paint);
+
+      RectF oval = new RectF(x - r, y - r, x + r, y + r);
+      for (int i=0; i<SECTORS; i++) {
+         paint.setColor(((bits & 0x1) > 0)? Color.WHITE : Color.BLACK);
+         g.drawArc(oval, i * sweep + a, sweep, true, paint);
+         bits >>= 1;
+      }
+
+      paint.setColor(Color.WHITE);
+      g.drawCircle(x, y, r - unit, paint);
+
+      paint.setColor(Color.BLACK);
+      g.drawCircle(x, y, r - unit * 2, paint);
+
+      paint.setColor(Color.WHITE);
+      g.drawCircle(x, y, r - unit * 3, paint);
+   }
+}